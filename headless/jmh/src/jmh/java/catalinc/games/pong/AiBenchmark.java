@@ -0,0 +1,72 @@
+package catalinc.games.pong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * doAI() and paddle moves, the per-tick work besides the ball.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+@State(Scope.Thread)
+public class AiBenchmark {
+
+    private final Ball    mBall       = new Ball(15);
+    private final float[] mVelocities = new float[2 * Fixtures.TABLE_SIZE];
+    private final float[] mTops       = new float[Fixtures.TABLE_SIZE];
+
+    private PongEngine   mEngine;
+    private PredictiveAI mAI;
+    private int          mNext;
+
+    @Setup
+    public void setUp() {
+        mEngine = Fixtures.newEngine();
+        mAI = new PredictiveAI(mEngine, new Random(3));
+        mAI.setDifficulty(PredictiveAI.DIFFICULTY_HARD);
+        Random random = new Random(4);
+        for (int i = 0; i < Fixtures.TABLE_SIZE; i++) {
+            double angle = (random.nextDouble() - 0.5) * Math.PI / 2;
+            mVelocities[2 * i] = (float) (8 * Math.cos(angle));
+            mVelocities[2 * i + 1] = (float) (8 * Math.sin(angle));
+            mTops[i] = random.nextFloat() * (Fixtures.HEIGHT + 200) - 100;
+        }
+        mBall.cx = Fixtures.WIDTH / 3;
+        mBall.cy = Fixtures.HEIGHT / 2;
+    }
+
+    /**
+     * A new intercept prediction on every call.
+     */
+    @Benchmark
+    public float update() {
+        final Player computer = mEngine.mComputerPlayer;
+        int v = 2 * (mNext++ & Fixtures.TABLE_MASK);
+        mBall.dx = mVelocities[v];
+        mBall.dy = mVelocities[v + 1];
+        mAI.update(computer, mBall);
+        return computer.top;
+    }
+
+    @Benchmark
+    public float movePlayer() {
+        final Player human = mEngine.mHumanPlayer;
+        mEngine.movePlayer(human, human.left, mTops[mNext++ & Fixtures.TABLE_MASK]);
+        return human.top;
+    }
+
+}
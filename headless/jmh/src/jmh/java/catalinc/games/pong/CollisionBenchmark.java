@@ -0,0 +1,72 @@
+package catalinc.games.pong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Swept ball against a paddle, alone and within a tick that bounces the ball.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+
+    private final SweptCollision mSweep   = new SweptCollision();
+    private final float[]        mOffsets = new float[Fixtures.TABLE_SIZE];
+
+    private Ball[]     mBalls;
+    private Player     mPaddle;
+    private PongEngine mEngine;
+    private int        mNext;
+
+    @Setup
+    public void setUp() {
+        mPaddle = new Player(25, 85);
+        mPaddle.left = 2;
+        mPaddle.top = 200;
+        // a mix of hits and misses
+        mBalls = Fixtures.randomBalls(new Random(1), 2, 150, 80, 180);
+
+        mEngine = Fixtures.newEngine();
+        Random random = new Random(2);
+        for (int i = 0; i < Fixtures.TABLE_SIZE; i++) {
+            mOffsets[i] = random.nextFloat() * 85;
+        }
+    }
+
+    @Benchmark
+    public boolean sweep() {
+        return mSweep.ballVsPaddle(mBalls[mNext++ & Fixtures.TABLE_MASK], mPaddle, 1);
+    }
+
+    /**
+     * A tick where the ball hits the human paddle, i.e. sweep plus handleCollision() and its cos/sin.
+     */
+    @Benchmark
+    public float bounce() {
+        final PongEngine engine = mEngine;
+        final Player human = engine.mHumanPlayer;
+        final Ball ball = engine.mBall;
+        ball.cx = human.right() + ball.radius + 4;
+        ball.cy = human.top + mOffsets[mNext++ & Fixtures.TABLE_MASK];
+        ball.dx = -8;
+        ball.dy = 0;
+        engine.tick();
+        return ball.dy;
+    }
+
+}
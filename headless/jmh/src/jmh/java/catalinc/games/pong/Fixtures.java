@@ -0,0 +1,44 @@
+package catalinc.games.pong;
+
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks.
+ * <p/>
+ * Inputs are taken round robin from tables of TABLE_SIZE entries, so the JIT cannot specialize for a single value.
+ */
+final class Fixtures {
+
+    static final int WIDTH  = 800;
+    static final int HEIGHT = 480;
+
+    static final int TABLE_SIZE = 1024;
+    static final int TABLE_MASK = TABLE_SIZE - 1;
+
+    private Fixtures() {
+    }
+
+    static PongEngine newEngine() {
+        PongEngine engine = new PongEngine(25, 85, 15, 42);
+        engine.setSize(WIDTH, HEIGHT);
+        return engine;
+    }
+
+    /**
+     * @return TABLE_SIZE balls at full speed in random directions, placed in the given rectangle.
+     */
+    static Ball[] randomBalls(Random random, float left, float top, float width, float height) {
+        Ball[] balls = new Ball[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            Ball ball = new Ball(15);
+            ball.cx = left + random.nextFloat() * width;
+            ball.cy = top + random.nextFloat() * height;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            ball.dx = (float) (PongEngine.PHYS_BALL_SPEED * Math.cos(angle));
+            ball.dy = (float) (PongEngine.PHYS_BALL_SPEED * Math.sin(angle));
+            balls[i] = ball;
+        }
+        return balls;
+    }
+
+}
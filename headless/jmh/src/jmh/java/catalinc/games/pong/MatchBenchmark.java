@@ -0,0 +1,55 @@
+package catalinc.games.pong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole simulations: a match between the HeadlessMatch human bot and the AI, and a tick of the multiball arena.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+@State(Scope.Thread)
+public class MatchBenchmark {
+
+    private MultiBallArena mArena;
+    private long           mSeed;
+
+    @Setup
+    public void setUp() {
+        PongEngine engine = new PongEngine(25, 85, 15, 6);
+        engine.setSize(1920, 1080);
+        mArena = new MultiBallArena(engine, 2000, 4, 6);
+        mArena.reset(2000);
+    }
+
+    /**
+     * One operation is a whole match to 11 points, us/op converts to matches per second.
+     */
+    @Benchmark
+    public long match11Points() throws IOException {
+        HeadlessMatch match = new HeadlessMatch(mSeed++, PredictiveAI.DIFFICULTY_MEDIUM);
+        match.play(11);
+        return match.getTicks();
+    }
+
+    @Benchmark
+    public int arenaTick2000() {
+        mArena.tick();
+        return mArena.humanPoints;
+    }
+
+}
@@ -0,0 +1,53 @@
+package catalinc.games.pong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Swept ball against a few hundred obstacles, through the grid and by testing all of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+@State(Scope.Thread)
+public class ObstacleSweepBenchmark {
+
+    @Param({"300"})
+    public int obstacles;
+
+    private ObstacleGrid mGrid;
+    private Ball[]       mBalls;
+    private int          mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        mGrid = new ObstacleGrid(ObstacleBenchmark.randomLevel(obstacles, random), Fixtures.WIDTH, Fixtures.HEIGHT, 15);
+        mBalls = Fixtures.randomBalls(random, 0, 0, Fixtures.WIDTH, Fixtures.HEIGHT);
+    }
+
+    @Benchmark
+    public int grid() {
+        return mGrid.sweep(mBalls[mNext++ & Fixtures.TABLE_MASK], 1) ? mGrid.obstacle : -1;
+    }
+
+    @Benchmark
+    public int scan() {
+        return mGrid.sweepAll(mBalls[mNext++ & Fixtures.TABLE_MASK], 1) ? mGrid.obstacle : -1;
+    }
+
+}
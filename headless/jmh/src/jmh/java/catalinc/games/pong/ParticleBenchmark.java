@@ -0,0 +1,69 @@
+package catalinc.games.pong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10k live particles, the ring stays full so the oldest ones are recycled all the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+@State(Scope.Thread)
+public class ParticleBenchmark {
+
+    private static final int PARTICLES = 10000;
+
+    private final float[] mPoints = new float[2 * PARTICLES];
+
+    private ParticleSystem mParticles;
+    private int            mNext;
+
+    /**
+     * A full particle system, as after many ticks of emitting more than the budget.
+     */
+    @Setup
+    public void setUp() {
+        mParticles = new ParticleSystem(PARTICLES, 6);
+        for (int i = 0; i < 100; i++) {
+            mParticles.tick();
+            emit(mParticles, i);
+        }
+    }
+
+    @Benchmark
+    public int tick() {
+        final ParticleSystem particles = mParticles;
+        particles.tick();
+        emit(particles, mNext++ & Fixtures.TABLE_MASK);
+        return particles.count();
+    }
+
+    @Benchmark
+    public int fill() {
+        return mParticles.fill(mPoints, 0.5f);
+    }
+
+    /**
+     * Sparks from a hit somewhere in the arena and a trail particle, more than the budget over a spark's life.
+     */
+    private static void emit(ParticleSystem particles, int i) {
+        final float x = 50 + (i * 37) % (Fixtures.WIDTH - 100);
+        final float y = 50 + (i * 53) % (Fixtures.HEIGHT - 100);
+        particles.sparks(x, y, (i & 1) == 0 ? 1 : -1, 0, PARTICLES / 16);
+        particles.trail(x, y, 8);
+    }
+
+}
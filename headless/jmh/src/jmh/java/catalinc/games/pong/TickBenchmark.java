@@ -0,0 +1,52 @@
+package catalinc.games.pong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PongThread.updatePhysics() minus the recorder: one tick, with the human paddle chasing the ball.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+@State(Scope.Thread)
+public class TickBenchmark {
+
+    @Param({"false", "true"})
+    public boolean fixedPoint;
+
+    private PongEngine mEngine;
+
+    @Setup
+    public void setUp() {
+        mEngine = Fixtures.newEngine();
+        mEngine.setFixedPoint(fixedPoint);
+    }
+
+    @Benchmark
+    public int tick() {
+        final PongEngine engine = mEngine;
+        engine.moveHumanPaddle(engine.mBall.cy > engine.mHumanPlayer.top + 40 ? 8 : -8);
+        int tick = engine.tick();
+        if (tick == PongEngine.TICK_WIN) {
+            engine.humanScores();
+        } else if (tick == PongEngine.TICK_LOSE) {
+            engine.computerScores();
+        }
+        return tick;
+    }
+
+}
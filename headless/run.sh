@@ -0,0 +1,21 @@
+#!/bin/sh
+#
+# Compile the Android-free game classes together with the headless tools and run one of them
+# on a plain JVM, e.g.
+#
+#   headless/run.sh HeadlessMatch 11 1000
+#
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+OUT="$ROOT/headless/build"
+
+MAIN=$1
+shift
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -d "$OUT" \
+      $(grep -L 'import android\.' "$ROOT"/src/catalinc/games/pong/*.java) \
+      $(find "$ROOT/headless/src" -name '*.java')
+exec java ${JAVA_OPTS} -cp "$OUT" "catalinc.games.pong.$MAIN" "$@"
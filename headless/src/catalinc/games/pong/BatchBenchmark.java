@@ -0,0 +1,141 @@
+package catalinc.games.pong;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that BatchEnvironment plays like the game and measures its throughput.
+ * <p/>
+ * Usage: BatchBenchmark [matches] [seconds] [threads]
+ * <p/>
+ * A few matches are first played in both BatchEnvironment and a fixed point PongEngine with the same random paddle
+ * moves and compared after every step. Then the whole batch is stepped with bots tracking the ball, on one thread
+ * and on a fork/join pool.
+ */
+public class BatchBenchmark {
+
+    private static final int WIDTH  = 800;
+    private static final int HEIGHT = 480;
+
+    private static final int CHECK_MATCHES = 16;
+    private static final int CHECK_STEPS   = 200000;
+
+    public static void main(String[] args) {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 65536;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        if (!check()) {
+            System.exit(1);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        System.out.printf("%d matches, 1 thread:  %.1f M steps/sec%n", matches,
+                          measure(new BatchEnvironment(matches, WIDTH, HEIGHT, 25, 85, 15, 11, null), seconds));
+        System.out.printf("%d matches, %d %s %.1f M steps/sec%n", matches, threads, threads > 1 ? "threads:" : "thread: ",
+                          measure(new BatchEnvironment(matches, WIDTH, HEIGHT, 25, 85, 15, 11, pool), seconds));
+        pool.shutdown();
+    }
+
+    /**
+     * @return true if the batch matches went exactly like the engine ones.
+     */
+    private static boolean check() {
+        BatchEnvironment env = new BatchEnvironment(CHECK_MATCHES, WIDTH, HEIGHT, 25, 85, 15, 11, null);
+        PongEngine[] engines = new PongEngine[CHECK_MATCHES];
+        for (int i = 0; i < CHECK_MATCHES; i++) {
+            engines[i] = new PongEngine(25, 85, 15, i);
+            engines[i].setRemoteOpponent(true);
+            engines[i].setFixedPoint(true);
+            engines[i].setSize(WIDTH, HEIGHT);
+        }
+        env.reset();
+        int[] actions = new int[2 * CHECK_MATCHES];
+        ByteBuffer state = ByteBuffer.allocate(PongEngine.STATE_SIZE);
+        Random random = new Random(1);
+        for (int step = 0; step < CHECK_STEPS; step++) {
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = random.nextInt(3) - 1;
+            }
+            env.step(actions);
+            for (int i = 0; i < CHECK_MATCHES; i++) {
+                PongEngine engine = engines[i];
+                engine.moveHumanPaddle(actions[2 * i] * PongEngine.PHYS_PADDLE_SPEED);
+                engine.moveComputerPaddle(actions[2 * i + 1] * PongEngine.PHYS_PADDLE_SPEED);
+                float reward = 0;
+                switch (engine.tick()) {
+                    case PongEngine.TICK_WIN:
+                        engine.humanScores();
+                        reward = 1;
+                        break;
+                    case PongEngine.TICK_LOSE:
+                        engine.computerScores();
+                        reward = -1;
+                        break;
+                }
+                if (engine.mHumanPlayer.score >= 11 || engine.mComputerPlayer.score >= 11) {
+                    engine.resetScore();
+                }
+                // the fixed point state is at the end of the engine state
+                state.clear();
+                engine.writeState(state);
+                state.position(PongEngine.STATE_SIZE - FixedPointPhysics.STATE_SIZE);
+                if (env.rewards[i] != reward
+                    || env.leftScores[i] != engine.mHumanPlayer.score
+                    || env.rightScores[i] != engine.mComputerPlayer.score
+                    || env.ballX[i] != state.getInt()
+                    || env.ballY[i] != state.getInt()
+                    || env.ballDx[i] != state.getInt()
+                    || env.ballDy[i] != state.getInt()
+                    || state.getInt() != 2 * FixedPointPhysics.ONE
+                    || env.leftTop[i] != state.getInt()
+                    || state.getInt() != (WIDTH - 25 - 2) * FixedPointPhysics.ONE
+                    || env.rightTop[i] != state.getInt()) {
+                    System.out.println("MISMATCH in match " + i + " at step " + step);
+                    return false;
+                }
+            }
+        }
+        System.out.println("Same as PongEngine for " + CHECK_MATCHES + " x " + CHECK_STEPS + " steps");
+        return true;
+    }
+
+    /**
+     * @return million env steps per second, the first half of the time is warmup.
+     */
+    private static double measure(BatchEnvironment env, double seconds) {
+        int[] actions = new int[2 * env.size];
+        env.reset();
+        long warmupEnd = System.nanoTime() + (long) (seconds * 0.5e9);
+        while (System.nanoTime() < warmupEnd) {
+            track(env, actions);
+            env.step(actions);
+        }
+        long steps = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 0.5e9);
+        long now;
+        do {
+            track(env, actions);
+            env.step(actions);
+            steps += env.size;
+            now = System.nanoTime();
+        } while (now < end);
+        return steps / ((now - start) / 1e3);
+    }
+
+    /**
+     * Both paddles follow the ball, acting on the observations like an agent would.
+     */
+    private static void track(BatchEnvironment env, int[] actions) {
+        final float[] observations = env.observations;
+        for (int i = 0; i < env.size; i++) {
+            int o = i * BatchEnvironment.OBSERVATION_SIZE;
+            float ballY = observations[o + 1];
+            actions[2 * i] = Float.compare(ballY, observations[o + 4]);
+            actions[2 * i + 1] = Float.compare(ballY, observations[o + 5]);
+        }
+    }
+
+}
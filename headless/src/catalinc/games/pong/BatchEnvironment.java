@@ -0,0 +1,289 @@
+package catalinc.games.pong;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Many independent two player matches stepped together, for training and evaluating paddle controllers.
+ * <p/>
+ * The matches are kept as a structure of int arrays and play by the rules of the fixed point physics
+ * (FixedPointPhysics), so a match here goes exactly like a PongEngine match in fixed point mode with the same
+ * paddle moves. Each step moves both paddles of every match by the given actions and runs one physics tick. A match
+ * that is won starts over on its own. Observations, rewards and done flags are written to arrays allocated once,
+ * the batch is split in chunks stepped in parallel on a fork/join pool, nothing is allocated per step.
+ */
+class BatchEnvironment {
+
+    static final int ACTION_UP   = -1;
+    static final int ACTION_STAY = 0;
+    static final int ACTION_DOWN = 1;
+
+    /**
+     * Observation floats per match: ball x, y, dx, dy, left paddle center, right paddle center. Positions are
+     * relative to the arena size, velocities to the ball speed.
+     */
+    static final int OBSERVATION_SIZE = 6;
+
+    /**
+     * Matches stepped by one task, small enough to balance the load and big enough to amortize the task.
+     */
+    private static final int CHUNK = 4096;
+
+    private static final int ONE = FixedPointPhysics.ONE;
+
+    final int size;
+
+    /**
+     * OBSERVATION_SIZE floats per match, after the last reset() or step().
+     */
+    final float[] observations;
+    /**
+     * Reward of the left player in the last step: 1 if it scored, -1 if the right player did, 0 otherwise. The right
+     * player's reward is the negation.
+     */
+    final float[] rewards;
+    /**
+     * The match ended with the last step and was started over.
+     */
+    final boolean[] done;
+
+    final int[] leftScores;
+    final int[] rightScores;
+
+    /**
+     * Ball and paddle state in fixed point.
+     */
+    final int[] ballX;
+    final int[] ballY;
+    final int[] ballDx;
+    final int[] ballDy;
+    final int[] leftTop;
+    final int[] rightTop;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPaddleWidth;
+    private final int mPaddleHeight;
+    private final int mRadius;
+    private final int mPointsToWin;
+
+    /**
+     * Constant paddle positions and limits, in fixed point.
+     */
+    private final int mLeftLeft;
+    private final int mRightLeft;
+    private final int mBottom;
+    private final int mPaddleMove;
+
+    private final ForkJoinPool mPool;
+    private final Chunk[]      mChunks;
+    private final StepAll      mStepAll;
+
+    private int[] mActions;
+
+    /**
+     * @param pool where chunks are stepped, null to step on the calling thread.
+     */
+    BatchEnvironment(int size, int width, int height, int paddleWidth, int paddleHeight, int ballRadius,
+                     int pointsToWin, ForkJoinPool pool) {
+        this.size = size;
+        observations = new float[size * OBSERVATION_SIZE];
+        rewards = new float[size];
+        done = new boolean[size];
+        leftScores = new int[size];
+        rightScores = new int[size];
+        ballX = new int[size];
+        ballY = new int[size];
+        ballDx = new int[size];
+        ballDy = new int[size];
+        leftTop = new int[size];
+        rightTop = new int[size];
+
+        mWidth = width;
+        mHeight = height;
+        mPaddleWidth = paddleWidth;
+        mPaddleHeight = paddleHeight;
+        mRadius = ballRadius;
+        mPointsToWin = pointsToWin;
+
+        // same clamping as FixedPointPhysics.movePlayer()
+        mLeftLeft = 2 * ONE;
+        mRightLeft = (width - paddleWidth - 2) * ONE;
+        mBottom = height * ONE;
+        mPaddleMove = PongEngine.PHYS_PADDLE_SPEED * ONE;
+
+        mPool = pool;
+        mChunks = new Chunk[(size + CHUNK - 1) / CHUNK];
+        for (int i = 0; i < mChunks.length; i++) {
+            mChunks[i] = new Chunk(i * CHUNK, Math.min(size, (i + 1) * CHUNK));
+        }
+        mStepAll = new StepAll();
+    }
+
+    /**
+     * Start all matches over from 0 - 0.
+     */
+    void reset() {
+        for (int i = 0; i < size; i++) {
+            leftScores[i] = 0;
+            rightScores[i] = 0;
+            rewards[i] = 0;
+            done[i] = false;
+            setupNewRound(i);
+            observe(i);
+        }
+    }
+
+    /**
+     * Run one tick of every match.
+     *
+     * @param actions two per match, one of the ACTION_* constants for the left then the right paddle.
+     */
+    void step(int[] actions) {
+        mActions = actions;
+        if (mPool == null || mChunks.length == 1) {
+            step(0, size);
+        } else {
+            mStepAll.reinitialize();
+            mPool.invoke(mStepAll);
+        }
+        mActions = null;
+    }
+
+    /**
+     * Same as PongEngine.setupNewRound().
+     */
+    private void setupNewRound(int i) {
+        ballX[i] = (mWidth / 2) * ONE;
+        ballY[i] = (mHeight / 2) * ONE;
+        ballDx[i] = -PongEngine.PHYS_BALL_SPEED * ONE;
+        ballDy[i] = 0;
+        leftTop[i] = ((mHeight - mPaddleHeight) / 2) * ONE;
+        rightTop[i] = leftTop[i];
+    }
+
+    private void step(int from, int to) {
+        final int[] actions = mActions;
+        final int r = mRadius * ONE;
+        final int top = r;
+        final int bottom = mHeight * ONE - ONE - r;
+        final int paddleWidth = mPaddleWidth * ONE;
+        final int paddleHeight = mPaddleHeight * ONE;
+        final int rightWall = mWidth * ONE - ONE;
+
+        for (int i = from; i < to; i++) {
+            leftTop[i] = movePaddle(leftTop[i], actions[2 * i]);
+            rightTop[i] = movePaddle(rightTop[i], actions[2 * i + 1]);
+
+            // FixedPointPhysics.moveBall()
+            int x = ballX[i] + ballDx[i];
+            int y = ballY[i] + ballDy[i];
+            if (y < top) {
+                y = 2 * top - y;
+                ballDy[i] = -ballDy[i];
+            } else if (y > bottom) {
+                y = 2 * bottom - y;
+                ballDy[i] = -ballDy[i];
+            }
+            if (ballDx[i] < 0
+                && FixedPointPhysics.touches(x, y, r, mLeftLeft, leftTop[i], paddleWidth, paddleHeight)) {
+                int position = FixedPointPhysics.bouncePosition(y, leftTop[i], mPaddleHeight);
+                ballDx[i] = FixedPointPhysics.bounceDx(position, 1);
+                ballDy[i] = FixedPointPhysics.bounceDy(position);
+                x = mLeftLeft + paddleWidth + r;
+            } else if (ballDx[i] > 0
+                       && FixedPointPhysics.touches(x, y, r, mRightLeft, rightTop[i], paddleWidth, paddleHeight)) {
+                int position = FixedPointPhysics.bouncePosition(y, rightTop[i], mPaddleHeight);
+                ballDx[i] = FixedPointPhysics.bounceDx(position, -1);
+                ballDy[i] = FixedPointPhysics.bounceDy(position);
+                x = mRightLeft - r;
+            }
+            ballX[i] = x;
+            ballY[i] = y;
+
+            float reward = 0;
+            if (x + r >= rightWall) {
+                reward = 1;
+                leftScores[i]++;
+                setupNewRound(i);
+            } else if (x <= r) {
+                reward = -1;
+                rightScores[i]++;
+                setupNewRound(i);
+            }
+            rewards[i] = reward;
+            boolean matchOver = leftScores[i] >= mPointsToWin || rightScores[i] >= mPointsToWin;
+            if (matchOver) {
+                leftScores[i] = 0;
+                rightScores[i] = 0;
+            }
+            done[i] = matchOver;
+            observe(i);
+        }
+    }
+
+    /**
+     * Same as PongEngine.moveHumanPaddle() in fixed point mode.
+     */
+    private int movePaddle(int top, int action) {
+        if (action == ACTION_STAY) {
+            return top;
+        }
+        top += action < 0 ? -mPaddleMove : mPaddleMove;
+        final int paddleHeight = mPaddleHeight * ONE;
+        if (top < 0) {
+            return 0;
+        } else if (top + paddleHeight >= mBottom) {
+            return mBottom - paddleHeight - ONE;
+        }
+        return top;
+    }
+
+    private void observe(int i) {
+        final float toX = 1.0f / ((float) ONE * mWidth);
+        final float toY = 1.0f / ((float) ONE * mHeight);
+        final float toSpeed = 1.0f / ((float) ONE * PongEngine.PHYS_BALL_SPEED);
+        final int halfHeight = mPaddleHeight * ONE / 2;
+        final int o = i * OBSERVATION_SIZE;
+        observations[o] = ballX[i] * toX;
+        observations[o + 1] = ballY[i] * toY;
+        observations[o + 2] = ballDx[i] * toSpeed;
+        observations[o + 3] = ballDy[i] * toSpeed;
+        observations[o + 4] = (leftTop[i] + halfHeight) * toY;
+        observations[o + 5] = (rightTop[i] + halfHeight) * toY;
+    }
+
+    /**
+     * Steps one range of matches.
+     */
+    @SuppressWarnings("serial")
+    private final class Chunk extends RecursiveAction {
+        private final int mFrom;
+        private final int mTo;
+
+        Chunk(int from, int to) {
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            step(mFrom, mTo);
+        }
+    }
+
+    /**
+     * Forks all chunks, the tasks are reused from step to step.
+     */
+    @SuppressWarnings("serial")
+    private final class StepAll extends RecursiveAction {
+        @Override
+        protected void compute() {
+            for (Chunk chunk : mChunks) {
+                chunk.reinitialize();
+            }
+            invokeAll(mChunks);
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package catalinc.games.pong;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Checks that the fixed point physics gives the same state on every run and compares its speed with the float
+ * physics.
+ * <p/>
+ * Usage: DeterminismCheck [ticks] [seed] [expected hash]
+ * <p/>
+ * The whole engine state is hashed after every tick. The hash printed for the fixed point physics must be the same
+ * on every JVM and device, e.g. compare a run with JAVA_OPTS=-Xint against one with the JIT by passing the first
+ * hash as the expected one. Exits with status 1 on a mismatch.
+ */
+public class DeterminismCheck {
+
+    private static final int WIDTH  = 800;
+    private static final int HEIGHT = 480;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME  = 0x100000001b3L;
+
+    private final ByteBuffer mState = ByteBuffer.allocate(PongEngine.STATE_SIZE);
+
+    public static void main(String[] args) {
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 1000000L;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Long expected = args.length > 2 ? Long.parseUnsignedLong(args[2], 16) : null;
+
+        DeterminismCheck check = new DeterminismCheck();
+        long fixed = check.play(true, seed, ticks, true);
+        long fixedAgain = check.play(true, seed, ticks, true);
+        long floating = check.play(false, seed, ticks, true);
+        System.out.printf("Fixed point hash:  %016x%n", fixed);
+        System.out.printf("Second run:        %016x%n", fixedAgain);
+        System.out.printf("Float hash:        %016x (platform dependent)%n", floating);
+
+        // a few timed runs without hashing, the first ones warm up the JIT
+        double fixedRate = 0;
+        double floatRate = 0;
+        for (int i = 0; i < 3; i++) {
+            fixedRate = check.rate(true, seed, ticks);
+            floatRate = check.rate(false, seed, ticks);
+        }
+        System.out.printf("Fixed point:       %.0f ticks/sec%n", fixedRate);
+        System.out.printf("Float:             %.0f ticks/sec%n", floatRate);
+
+        boolean ok = fixed == fixedAgain;
+        if (!ok) {
+            System.out.println("FAILED: runs differ");
+        }
+        if (expected != null && expected != fixed) {
+            System.out.printf("FAILED: expected %016x%n", expected);
+            ok = false;
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private double rate(boolean fixedPoint, long seed, long ticks) {
+        long start = System.nanoTime();
+        play(fixedPoint, seed, ticks, false);
+        return ticks / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Play the given number of ticks with the HeadlessMatch human bot.
+     *
+     * @return hash of the states after every tick, 0 when not hashing.
+     */
+    private long play(boolean fixedPoint, long seed, long ticks, boolean hash) {
+        PongEngine engine = new PongEngine(25, 85, 15, seed);
+        engine.setDifficulty(PredictiveAI.DIFFICULTY_HARD);
+        engine.setFixedPoint(fixedPoint);
+        engine.setSize(WIDTH, HEIGHT);
+        Random humanRandom = new Random(~seed);
+        Player human = engine.mHumanPlayer;
+        long h = FNV_OFFSET;
+        for (long i = 0; i < ticks; i++) {
+            if (humanRandom.nextFloat() < 0.5f) {
+                if (human.top > engine.mBall.cy) {
+                    engine.moveHumanPaddle(-PongEngine.PHYS_PADDLE_SPEED);
+                } else if (human.top + human.paddleHeight < engine.mBall.cy) {
+                    engine.moveHumanPaddle(PongEngine.PHYS_PADDLE_SPEED);
+                }
+            }
+            switch (engine.tick()) {
+                case PongEngine.TICK_WIN:
+                    engine.humanScores();
+                    break;
+                case PongEngine.TICK_LOSE:
+                    engine.computerScores();
+                    break;
+            }
+            if (hash) {
+                h = hash(h, engine);
+            }
+        }
+        return hash ? h : 0;
+    }
+
+    /**
+     * FNV-1a over the bytes of the engine state.
+     */
+    private long hash(long h, PongEngine engine) {
+        ByteBuffer b = mState;
+        b.clear();
+        engine.writeState(b);
+        for (int i = 0; i < b.position(); i++) {
+            h ^= b.get(i) & 0xff;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+}
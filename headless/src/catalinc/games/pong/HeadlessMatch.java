@@ -0,0 +1,151 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Play complete matches between two computer players without rendering.
+ * <p/>
+ * Usage: HeadlessMatch [points to win] [matches] [seed] [difficulty 0-2] [match log]
+ * <p/>
+ * With a match log file the first match is recorded, it can be verified with ReplayMatch.
+ */
+public class HeadlessMatch {
+
+    private static final int WIDTH  = 800;
+    private static final int HEIGHT = 480;
+
+    /**
+     * Give up a match after this many ticks, two perfect players could rally forever.
+     */
+    private static final long MAX_TICKS = 10000000L;
+
+    /**
+     * The probability to move the left (human) paddle.
+     */
+    private static final float HUMAN_MOVE_PROBABILITY = 0.5f;
+
+    private final PongEngine mEngine;
+    private final Random     mHumanRandom;
+
+    private MatchRecorder mRecorder;
+
+    private long mTicks;
+
+    HeadlessMatch(long seed, int difficulty) {
+        mEngine = new PongEngine(25, 85, 15, seed);
+        mEngine.setDifficulty(difficulty);
+        mEngine.setSize(WIDTH, HEIGHT);
+        mHumanRandom = new Random(~seed);
+    }
+
+    void record(File file, long seed) {
+        mEngine.setSeed(seed);
+        mRecorder = new MatchRecorder(file, null);
+        mRecorder.header(seed, mEngine);
+    }
+
+    /**
+     * Run the match until one of the players reaches the given score.
+     *
+     * @return false if the match was abandoned after MAX_TICKS.
+     */
+    boolean play(int pointsToWin) throws IOException {
+        Player human = mEngine.mHumanPlayer;
+        Player computer = mEngine.mComputerPlayer;
+        boolean finished = true;
+        while (human.score < pointsToWin && computer.score < pointsToWin) {
+            if (mTicks++ >= MAX_TICKS) {
+                finished = false;
+                break;
+            }
+            if (mHumanRandom.nextFloat() < HUMAN_MOVE_PROBABILITY) {
+                moveHuman();
+            }
+            if (mRecorder != null) {
+                mRecorder.tick();
+            }
+            switch (mEngine.tick()) {
+                case PongEngine.TICK_WIN:
+                    mEngine.humanScores();
+                    break;
+                case PongEngine.TICK_LOSE:
+                    mEngine.computerScores();
+                    break;
+            }
+        }
+        if (mRecorder != null) {
+            mRecorder.end(mEngine);
+            // the log is replayed right after
+            mRecorder.await();
+            mRecorder = null;
+        }
+        return finished;
+    }
+
+    /**
+     * Chase the ball like a not too attentive human would.
+     */
+    private void moveHuman() {
+        Player human = mEngine.mHumanPlayer;
+        float dy;
+        if (human.top > mEngine.mBall.cy) {
+            dy = -PongEngine.PHYS_PADDLE_SPEED;
+        } else if (human.top + human.paddleHeight < mEngine.mBall.cy) {
+            dy = PongEngine.PHYS_PADDLE_SPEED;
+        } else {
+            return;
+        }
+        mEngine.moveHumanPaddle(dy);
+        if (mRecorder != null) {
+            mRecorder.move(dy);
+        }
+    }
+
+    long getTicks() {
+        return mTicks;
+    }
+
+    PongEngine getEngine() {
+        return mEngine;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int pointsToWin = args.length > 0 ? Integer.parseInt(args[0]) : 11;
+        int matches = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+        int difficulty = args.length > 3 ? Integer.parseInt(args[3]) : PredictiveAI.DIFFICULTY_MEDIUM;
+        File log = args.length > 4 ? new File(args[4]) : null;
+
+        long totalTicks = 0;
+        int humanWins = 0;
+        int abandoned = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < matches; i++) {
+            HeadlessMatch match = new HeadlessMatch(seed + i, difficulty);
+            if (i == 0 && log != null) {
+                match.record(log, seed);
+            }
+            if (!match.play(pointsToWin)) {
+                abandoned++;
+            } else if (match.getEngine().mHumanPlayer.score >= pointsToWin) {
+                humanWins++;
+            }
+            totalTicks += match.getTicks();
+            if (matches == 1) {
+                System.out.println("Final score " + match.getEngine().mHumanPlayer.score
+                                   + " - " + match.getEngine().mComputerPlayer.score);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("Matches:    " + matches + " (seed " + seed + ")");
+        System.out.println("Left wins:  " + humanWins);
+        System.out.println("Right wins: " + (matches - humanWins - abandoned));
+        System.out.println("Abandoned:  " + abandoned);
+        System.out.println("Ticks:      " + totalTicks);
+        System.out.printf("Ticks/sec:  %.0f%n", totalTicks / seconds);
+    }
+
+}
@@ -0,0 +1,63 @@
+package catalinc.games.pong;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measure MultiBallArena ticks per second against the 60 ticks per second the game runs at.
+ * <p/>
+ * Usage: MultiBallBenchmark [balls] [width] [height] [seconds]
+ */
+public class MultiBallBenchmark {
+
+    private static final int TARGET_TICKS_PER_SECOND = 60;
+    private static final int WARMUP_TICKS            = 2000;
+
+    public static void main(String[] args) {
+        int balls = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 1920;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 1080;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        PongEngine engine = new PongEngine(25, 85, 15, 42);
+        engine.setSize(width, height);
+        MultiBallArena arena = new MultiBallArena(engine, balls, 4, 42);
+        arena.reset(balls);
+
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            arena.tick();
+        }
+
+        long points = 0;
+        long ticks = 0;
+        long worst = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long now = start;
+        while (now < end) {
+            arena.tick();
+            points += arena.humanPoints + arena.computerPoints;
+            ticks++;
+            long after = System.nanoTime();
+            worst = Math.max(worst, after - now);
+            now = after;
+        }
+        allocated = allocatedBytes() - allocated;
+
+        double elapsed = (now - start) / 1e9;
+        double rate = ticks / elapsed;
+        System.out.println("Balls:     " + balls + " in " + width + "x" + height);
+        System.out.printf("tick:      %.1f us avg, %.1f us worst%n", elapsed * 1e6 / ticks, worst / 1e3);
+        System.out.printf("rate:      %.0f ticks/s, %.1fx the %d ticks/s budget%n",
+                          rate, rate / TARGET_TICKS_PER_SECOND, TARGET_TICKS_PER_SECOND);
+        System.out.printf("allocated: %.3f bytes/tick%n", allocated / (double) ticks);
+        System.out.println("points:    " + points);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
@@ -0,0 +1,135 @@
+package catalinc.games.pong;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Play a rollback network match between two bots over localhost, on a simulated bad network, then check that
+ * both peers ended in the same state.
+ * <p/>
+ * Usage: NetMatch [ticks] [latency ms] [jitter ms] [loss %] [rollback window]
+ */
+public class NetMatch {
+
+    private static final int  WIDTH     = 800;
+    private static final int  HEIGHT    = 480;
+    private static final int  BASE_PORT = 47810;
+    private static final long TICK_NANOS = 1000000000L / 60;
+
+    public static void main(String[] args) throws Exception {
+        final int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 900;
+        final int latency = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        final int jitter = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        final float loss = (args.length > 3 ? Float.parseFloat(args[3]) : 5) / 100;
+        final int window = args.length > 4 ? Integer.parseInt(args[4]) : 12;
+
+        Peer left = new Peer(RollbackSession.SIDE_LEFT, ticks, latency, jitter, loss, window);
+        Peer right = new Peer(RollbackSession.SIDE_RIGHT, ticks, latency, jitter, loss, window);
+        Thread leftThread = new Thread(left, "left");
+        Thread rightThread = new Thread(right, "right");
+        leftThread.start();
+        rightThread.start();
+        leftThread.join();
+        rightThread.join();
+
+        System.out.printf("Link: %d ms latency, %d ms jitter, %.1f%% loss, window %d ticks%n",
+                          latency, jitter, loss * 100, window);
+        left.report();
+        right.report();
+        if (left.mError != null || right.mError != null) {
+            System.out.println("FAILED: " + (left.mError != null ? left.mError : right.mError));
+        } else if (!left.mFinished || !right.mFinished) {
+            System.out.println("TIMEOUT: peers did not exchange all inputs");
+        } else if (Arrays.equals(left.mFinalState, right.mFinalState)) {
+            System.out.println("IN SYNC after " + ticks + " ticks");
+        } else {
+            System.out.println("DESYNC");
+        }
+    }
+
+    private static class Peer implements Runnable {
+
+        private final int   mSide;
+        private final int   mTicks;
+        private final int   mLatency;
+        private final int   mJitter;
+        private final float mLoss;
+        private final int   mWindow;
+
+        private RollbackSession mSession;
+        private UdpTransport    mTransport;
+        private PongEngine      mEngine;
+        private byte[]          mFinalState;
+        private boolean         mFinished;
+        private long            mMaxPredicted;
+        private Exception       mError;
+
+        Peer(int side, int ticks, int latency, int jitter, float loss, int window) {
+            mSide = side;
+            mTicks = ticks;
+            mLatency = latency;
+            mJitter = jitter;
+            mLoss = loss;
+            mWindow = window;
+        }
+
+        @Override
+        public void run() {
+            try {
+                play();
+            } catch (Exception e) {
+                mError = e;
+            }
+        }
+
+        private void play() throws Exception {
+            int localPort = BASE_PORT + mSide;
+            int remotePort = BASE_PORT + 1 - mSide;
+            mTransport = new UdpTransport(localPort, new InetSocketAddress("127.0.0.1", remotePort));
+            mTransport.setImpairment(mLatency, mJitter, mLoss, 1000 + mSide);
+            mEngine = new PongEngine(25, 85, 15, 42);
+            mSession = new RollbackSession(mEngine, mTransport, mSide, mWindow);
+            mSession.start(WIDTH, HEIGHT);
+
+            Random random = new Random(mSide);
+            SleepFrameScheduler scheduler = new SleepFrameScheduler(TICK_NANOS);
+            while (mSession.getFrame() < mTicks) {
+                scheduler.awaitFrame();
+                // follow the ball as predicted locally, with some noise
+                Player paddle = mSession.getLocalPlayer();
+                float distance = mEngine.mBall.cy - (paddle.top + paddle.paddleHeight / 2);
+                float dy = Math.max(-PongEngine.PHYS_PADDLE_SPEED,
+                                    Math.min(PongEngine.PHYS_PADDLE_SPEED, distance));
+                dy += (random.nextFloat() - 0.5f) * 6;
+                mSession.tick(dy);
+                mMaxPredicted = Math.max(mMaxPredicted, mSession.getPredictedTicks());
+            }
+            mFinished = mSession.finish(5000000000L);
+            ByteBuffer state = ByteBuffer.allocate(PongEngine.STATE_SIZE);
+            mEngine.writeState(state);
+            mFinalState = state.array();
+            mTransport.close();
+        }
+
+        void report() {
+            if (mSession == null) {
+                return;
+            }
+            LatencyHistogram cost = mSession.getResimulationCost();
+            String name = mSide == RollbackSession.SIDE_LEFT ? "left " : "right";
+            System.out.printf("%s: %d rollbacks, %d ticks re-simulated (%.2f per tick), %d stalls, "
+                              + "max %d ticks predicted%n",
+                              name, mSession.getRollbacks(), mSession.getResimulatedTicks(),
+                              mSession.getResimulatedTicks() / (double) mTicks, mSession.getStalls(), mMaxPredicted);
+            System.out.printf("       rollback cost p50 %d us, p99 %d us, max %d us; packets %d sent, %d dropped, "
+                              + "%d received; score %d - %d%n",
+                              cost.getPercentile(50), cost.getPercentile(99), cost.getMax(),
+                              mTransport.getSent(), mTransport.getDropped(), mTransport.getReceived(),
+                              mEngine.mHumanPlayer.score, mEngine.mComputerPlayer.score);
+        }
+
+    }
+
+}
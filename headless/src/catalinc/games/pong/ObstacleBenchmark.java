@@ -0,0 +1,208 @@
+package catalinc.games.pong;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares obstacle sweeps through the grid with a scan of all obstacles, for growing obstacle counts.
+ * <p/>
+ * Usage: ObstacleBenchmark [-l level file] [obstacle counts]
+ * <p/>
+ * Both must find the same obstacle at the same time for every query. With a level file, matches are also played in
+ * that arena to check that the ball stays in it.
+ */
+public class ObstacleBenchmark {
+
+    private static final int  WIDTH           = 800;
+    private static final int  HEIGHT          = 480;
+    private static final int  BALL_RADIUS     = 15;
+
+    private static final int  QUERIES         = 4096;
+    private static final long ITERATION_NANOS = 200000000L;
+    private static final int  WARMUP_ROUNDS   = 3;
+
+    private static final int  MATCHES         = 20;
+    /**
+     * Give up a match after this many ticks, like HeadlessMatch.
+     */
+    private static final long MAX_TICKS       = 10000000L;
+
+    public static void main(String[] args) throws IOException {
+        String levelFile = null;
+        int[] counts = {10, 100, 1000, 10000};
+        int n = 0;
+        for (int i = 0; i < args.length; i++) {
+            if ("-l".equals(args[i])) {
+                levelFile = args[++i];
+            } else {
+                if (n == 0) {
+                    counts = new int[args.length - i];
+                }
+                counts[n++] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.printf("%10s %12s %12s %10s %8s%n", "obstacles", "grid ns", "scan ns", "speedup", "hits");
+        for (int count : counts) {
+            compare(count);
+        }
+
+        if (levelFile != null) {
+            FileReader in = new FileReader(levelFile);
+            Level level;
+            try {
+                level = Level.read(in);
+            } finally {
+                in.close();
+            }
+            play(level);
+        }
+    }
+
+    private static void compare(int count) {
+        Random random = new Random(count);
+        Level level = randomLevel(count, random);
+        ObstacleGrid grid = new ObstacleGrid(level, WIDTH, HEIGHT, BALL_RADIUS);
+
+        Ball[] balls = new Ball[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            Ball ball = new Ball(BALL_RADIUS);
+            ball.cx = random.nextFloat() * WIDTH;
+            ball.cy = random.nextFloat() * HEIGHT;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            ball.dx = (float) (PongEngine.PHYS_BALL_SPEED * Math.cos(angle));
+            ball.dy = (float) (PongEngine.PHYS_BALL_SPEED * Math.sin(angle));
+            balls[i] = ball;
+        }
+
+        int hits = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            boolean gridHit = grid.sweep(balls[i], 1);
+            int obstacle = grid.obstacle;
+            float time = grid.time;
+            boolean scanHit = grid.sweepAll(balls[i], 1);
+            if (gridHit != scanHit || gridHit && (obstacle != grid.obstacle
+                                                  || Float.floatToRawIntBits(time)
+                                                     != Float.floatToRawIntBits(grid.time))) {
+                throw new IllegalStateException("Grid and scan disagree on query " + i + " with " + count
+                                                + " obstacles");
+            }
+            if (gridHit) {
+                hits++;
+            }
+        }
+
+        double gridNanos = measure(grid, balls, true);
+        double scanNanos = measure(grid, balls, false);
+        System.out.printf("%10d %12.1f %12.1f %9.1fx %7.1f%%%n", count, gridNanos, scanNanos, scanNanos / gridNanos,
+                          100.0 * hits / QUERIES);
+    }
+
+    /**
+     * Obstacles of all kinds sized so that they cover about a third of the arena, whatever their count.
+     */
+    static Level randomLevel(int count, Random random) {
+        Level level = new Level();
+        float size = (float) Math.sqrt(0.33 / count);
+        for (int i = 0; i < count; i++) {
+            float x = random.nextFloat();
+            float y = random.nextFloat();
+            switch (i % 3) {
+                case Level.KIND_BRICK:
+                    level.add(Level.KIND_BRICK, x, y, size, size, 0);
+                    break;
+                case Level.KIND_BUMPER:
+                    level.add(Level.KIND_BUMPER, x, y, size / 2, 0, 0);
+                    break;
+                default:
+                    level.add(Level.KIND_DEFLECTOR, x, y, x + size, y + size * (random.nextFloat() - 0.5f),
+                              size / 4);
+                    break;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * A quick timing to see how both scale with the obstacle count, ObstacleSweepBenchmark in the JMH module
+     * measures them properly.
+     *
+     * @return nanoseconds per sweep of the last round.
+     */
+    private static double measure(ObstacleGrid grid, Ball[] balls, boolean useGrid) {
+        double nanosPerOp = 0;
+        long found = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            long ops = 0;
+            do {
+                for (int i = 0; i < QUERIES; i++) {
+                    if (useGrid ? grid.sweep(balls[i], 1) : grid.sweepAll(balls[i], 1)) {
+                        found += grid.obstacle;
+                    }
+                }
+                ops += QUERIES;
+            } while (System.nanoTime() - start < ITERATION_NANOS);
+            nanosPerOp = (System.nanoTime() - start) / (double) ops;
+        }
+        if (found == 42) {
+            System.out.println();
+        }
+        return nanosPerOp;
+    }
+
+    /**
+     * Matches between the HeadlessMatch human bot and the AI in the level arena.
+     */
+    private static void play(Level level) {
+        long ticks = 0;
+        long obstacleHits = 0;
+        int points = 0;
+        int abandoned = 0;
+        long start = System.nanoTime();
+        for (int m = 0; m < MATCHES; m++) {
+            PongEngine engine = new PongEngine(25, 85, BALL_RADIUS, m);
+            engine.setSize(WIDTH, HEIGHT);
+            engine.setLevel(level);
+            engine.setDifficulty(m % 3);
+            Random humanRandom = new Random(~m);
+            Player human = engine.mHumanPlayer;
+            Ball ball = engine.mBall;
+            long matchTicks = 0;
+            while (human.score < 11 && engine.mComputerPlayer.score < 11) {
+                if (matchTicks++ >= MAX_TICKS) {
+                    abandoned++;
+                    break;
+                }
+                if (humanRandom.nextFloat() < 0.5f) {
+                    if (human.top > ball.cy) {
+                        engine.moveHumanPaddle(-PongEngine.PHYS_PADDLE_SPEED);
+                    } else if (human.top + human.paddleHeight < ball.cy) {
+                        engine.moveHumanPaddle(PongEngine.PHYS_PADDLE_SPEED);
+                    }
+                }
+                int result = engine.tick();
+                ticks++;
+                if ((engine.getEvents() & PongEngine.EVENT_OBSTACLE) != 0) {
+                    obstacleHits++;
+                }
+                if (ball.cx < 0 || ball.cx > WIDTH || ball.cy < 0 || ball.cy > HEIGHT || Float.isNaN(ball.dx)) {
+                    throw new IllegalStateException("Ball left the arena at tick " + ticks);
+                }
+                if (result == PongEngine.TICK_WIN) {
+                    engine.humanScores();
+                    points++;
+                } else if (result == PongEngine.TICK_LOSE) {
+                    engine.computerScores();
+                    points++;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("level with %d obstacles: %d matches (%d abandoned), %d points, %d obstacle hits in %d ticks, "
+                          + "%.1f M ticks/sec%n", level.count(), MATCHES, abandoned, points, obstacleHits, ticks,
+                          ticks / seconds / 1e6);
+    }
+
+}
@@ -0,0 +1,79 @@
+package catalinc.games.pong;
+
+/**
+ * Drive the game loop timing on a virtual clock and check that no simulated time is lost or invented.
+ * <p/>
+ * Every frame costs a fixed amount of work, every n-th frame a longer spike. Physics ticks run plus ticks dropped
+ * as backlog must account for all the elapsed time, whatever frames were dropped.
+ * <p/>
+ * Usage: PacingSimulation [refresh Hz] [frame cost us] [spike every n frames] [spike cost ms] [frames]
+ */
+public class PacingSimulation {
+
+    /**
+     * Same values as the PongThread game loop.
+     */
+    private static final long PHYS_TICK_NANOS = 1000000000L / 60;
+    private static final int  PHYS_MAX_TICKS  = 5;
+    private static final long STALL_NANOS     = 250000000L;
+
+    public static void main(String[] args) {
+        int refreshRate = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        long frameCost = (args.length > 1 ? Long.parseLong(args[1]) : 4000) * 1000L;
+        int spikeEvery = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        long spikeCost = (args.length > 3 ? Long.parseLong(args[3]) : 40) * 1000000L;
+        int frames = args.length > 4 ? Integer.parseInt(args[4]) : 3600;
+
+        VirtualFrameScheduler scheduler = new VirtualFrameScheduler(1000000000L / refreshRate);
+        FixedTimestep timestep = new FixedTimestep(PHYS_TICK_NANOS, PHYS_MAX_TICKS, STALL_NANOS);
+        PongEngine engine = new PongEngine(25, 85, 15, 42);
+        engine.setSize(800, 480);
+
+        long firstFrame = scheduler.awaitFrame();
+        timestep.start(firstFrame);
+        long lastFrame = firstFrame;
+        long ticks = 0;
+        int maxTicks = 0;
+        long maxGap = 0;
+        for (int i = 1; i < frames; i++) {
+            scheduler.advance(spikeEvery > 0 && i % spikeEvery == 0 ? spikeCost : frameCost);
+            long frameTime = scheduler.awaitFrame();
+            maxGap = Math.max(maxGap, frameTime - lastFrame);
+            lastFrame = frameTime;
+
+            int due = timestep.frame(frameTime, true);
+            for (int t = 0; t < due; t++) {
+                switch (engine.tick()) {
+                    case PongEngine.TICK_WIN:
+                        engine.humanScores();
+                        break;
+                    case PongEngine.TICK_LOSE:
+                        engine.computerScores();
+                        break;
+                }
+            }
+            ticks += due;
+            maxTicks = Math.max(maxTicks, due);
+        }
+
+        long elapsed = lastFrame - firstFrame;
+        long expected = elapsed / PHYS_TICK_NANOS;
+        long accounted = ticks + timestep.getDroppedTicks();
+        boolean stalled = maxGap > STALL_NANOS;
+
+        System.out.printf("Virtual time:    %.3f s at %d Hz%n", elapsed / 1e9, refreshRate);
+        System.out.println("frames:          " + scheduler.getFrames()
+                           + " drawn, " + scheduler.getDroppedFrames() + " dropped");
+        System.out.printf("longest frame:   %.2f ms%n", maxGap / 1e6);
+        System.out.println("physics ticks:   " + ticks + " run, " + timestep.getDroppedTicks()
+                           + " dropped as backlog, at most " + maxTicks + " per frame");
+        System.out.println("score:           " + engine.mHumanPlayer.score + " - " + engine.mComputerPlayer.score);
+        if (stalled) {
+            System.out.println("time check:      skipped, a frame was long enough to count as a stall");
+        } else {
+            System.out.println("time check:      " + (accounted == expected
+                                                       ? "OK" : "MISMATCH, expected " + expected + " ticks"));
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package catalinc.games.pong;
+
+import java.util.Random;
+
+/**
+ * Drive the QualityGovernor with a simulated slow renderer on a virtual clock and check that it settles on a tier
+ * that holds the frame deadline.
+ * <p/>
+ * Frame work is the cost of the current tier scaled by the load of the run phase, with some jitter and a long
+ * spike now and then (GC, another app). The phases are a normal, a light and a heavy load, e.g. a simple scene
+ * followed by thermal throttling. In the second half of every phase the tier must not change any more and frames
+ * other than the spikes must meet the deadline.
+ * <p/>
+ * Usage: QualitySimulation [full tier cost ms] [seconds per phase] [seed]
+ */
+public class QualitySimulation {
+
+    /**
+     * Same deadline as the PongThread game loop.
+     */
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    /**
+     * Cost of each tier relative to the full one: resolution and anti-aliasing dominate, the glow is cheap since
+     * the paddle sprites are cached.
+     */
+    private static final float[] TIER_COST = {0.45f, 0.6f, 0.9f, 1.0f};
+    private static final float[] LOADS     = {1.0f, 0.35f, 1.6f};
+    private static final String[] PHASES   = {"normal", "light", "heavy"};
+
+    private static final float JITTER      = 0.1f;
+    private static final int   SPIKE_EVERY = 97;
+    private static final long  SPIKE_NANOS = 40000000L;
+
+    /**
+     * Highest share of frames past the deadline, spikes excluded, in the second half of a phase.
+     */
+    private static final double MAX_LATE_SHARE = 0.02;
+
+    public static void main(String[] args) {
+        float fullCost = args.length > 0 ? Float.parseFloat(args[0]) : 20;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        VirtualFrameScheduler scheduler = new VirtualFrameScheduler(FRAME_NANOS);
+        QualityGovernor governor = new QualityGovernor(FRAME_NANOS, QualityGovernor.TIER_FULL);
+        Random random = new Random(seed);
+        final int phaseFrames = seconds * 60;
+        boolean ok = true;
+
+        System.out.printf("full tier cost %.1f ms, budget %.2f ms%n", fullCost, FRAME_NANOS / 1e6);
+        System.out.printf("%-8s %5s %6s %10s %10s %8s %8s%n", "phase", "load", "tier", "changes", "late 2nd", "up", "down");
+        scheduler.awaitFrame();
+        for (int p = 0; p < LOADS.length; p++) {
+            int changes = 0;
+            int lateChanges = 0;
+            int late = 0;
+            int measured = 0;
+            long ups = governor.getUpgrades();
+            long downs = governor.getDowngrades();
+            for (int f = 0; f < phaseFrames; f++) {
+                final int tier = governor.getTier();
+                long work = (long) (fullCost * 1e6 * TIER_COST[tier] * LOADS[p]
+                                    * (1 + JITTER * (2 * random.nextFloat() - 1)));
+                final boolean spike = f % SPIKE_EVERY == SPIKE_EVERY - 1;
+                if (spike) {
+                    work += SPIKE_NANOS;
+                }
+                scheduler.advance(work);
+                scheduler.awaitFrame();
+                final boolean secondHalf = f >= phaseFrames / 2;
+                if (governor.frame(work)) {
+                    changes++;
+                    System.out.printf("  %7.2f s  tier %d -> %d, work %.2f ms per frame%n",
+                                      (p * phaseFrames + f) / 60.0, tier, governor.getTier(),
+                                      governor.getLastWindowMean() / 1e6);
+                    if (secondHalf) {
+                        lateChanges++;
+                    }
+                }
+                if (secondHalf && !spike) {
+                    measured++;
+                    if (work > FRAME_NANOS) {
+                        late++;
+                    }
+                }
+            }
+            double lateShare = (double) late / measured;
+            System.out.printf("%-8s %5.2f %6d %10d %9.2f%% %8d %8d%n", PHASES[p], LOADS[p], governor.getTier(),
+                              changes, 100 * lateShare, governor.getUpgrades() - ups,
+                              governor.getDowngrades() - downs);
+            if (lateChanges > 0) {
+                System.out.println("  tier still changing in the second half");
+                ok = false;
+            }
+            if (lateShare > MAX_LATE_SHARE && governor.getTier() > QualityGovernor.TIER_LOW) {
+                System.out.println("  deadline missed above the lowest tier");
+                ok = false;
+            }
+        }
+        System.out.println("frames " + scheduler.getFrames() + ", dropped " + scheduler.getDroppedFrames());
+        System.out.println(ok ? "OK" : "FAILED");
+    }
+
+}
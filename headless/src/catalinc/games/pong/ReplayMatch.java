@@ -0,0 +1,36 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replay match logs written by the game or HeadlessMatch and verify their final state.
+ * <p/>
+ * Usage: ReplayMatch log...
+ */
+public class ReplayMatch {
+
+    private static final int PHYS_FPS = 60;
+
+    public static void main(String[] args) throws IOException {
+        int failed = 0;
+        for (String path : args) {
+            long start = System.nanoTime();
+            MatchReplay replay = MatchReplay.open(new File(path));
+            boolean matched = replay.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            PongEngine engine = replay.getEngine();
+            String result = matched ? "OK" : (replay.isEnded() ? "MISMATCH" : "TRUNCATED");
+            System.out.printf("%s: %s, score %d - %d, %d ticks, %.0fx real time%n",
+                              path, result,
+                              engine.mHumanPlayer.score, engine.mComputerPlayer.score,
+                              replay.getTicks(), replay.getTicks() / (double) PHYS_FPS / seconds);
+            if (!matched) {
+                failed++;
+            }
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+}
@@ -0,0 +1,98 @@
+package catalinc.games.pong;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measure the cost of taking and restoring a GameSnapshot, and check that a restored game continues identically.
+ * <p/>
+ * Usage: SnapshotBenchmark [iterations]
+ */
+public class SnapshotBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * Same value as PongThread.STATE_RUNNING, which is not available on a plain JVM.
+     */
+    private static final int STATE_RUNNING = 2;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+        PongEngine engine = new PongEngine(25, 85, 15, 42);
+        engine.setSize(800, 480);
+        for (int i = 0; i < 1000; i++) {
+            tick(engine);
+        }
+
+        checkResume(engine);
+
+        GameSnapshot snapshot = new GameSnapshot();
+        long sink = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                snapshot.save(engine, STATE_RUNNING);
+            }
+            long saved = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += snapshot.restore(engine);
+            }
+            long restored = System.nanoTime();
+            allocated = allocatedBytes() - allocated;
+
+            if (round == WARMUP_ROUNDS) {
+                System.out.println("Snapshot size: " + GameSnapshot.SIZE + " bytes");
+                System.out.printf("save:      %.1f ns/op%n", (saved - start) / (double) iterations);
+                System.out.printf("restore:   %.1f ns/op%n", (restored - saved) / (double) iterations);
+                System.out.printf("allocated: %.3f bytes/op%n", allocated / (2.0 * iterations));
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Run ahead, restore, run again and compare.
+     */
+    private static void checkResume(PongEngine engine) {
+        GameSnapshot start = new GameSnapshot();
+        GameSnapshot first = new GameSnapshot();
+        GameSnapshot second = new GameSnapshot();
+
+        start.save(engine, STATE_RUNNING);
+        for (int i = 0; i < 5000; i++) {
+            tick(engine);
+        }
+        first.save(engine, STATE_RUNNING);
+
+        start.restore(engine);
+        for (int i = 0; i < 5000; i++) {
+            tick(engine);
+        }
+        second.save(engine, STATE_RUNNING);
+
+        int diff = first.diff(second);
+        System.out.println("Resume check: " + (diff < 0 ? "identical" : "differs at byte " + diff));
+    }
+
+    private static void tick(PongEngine engine) {
+        switch (engine.tick()) {
+            case PongEngine.TICK_WIN:
+                engine.humanScores();
+                break;
+            case PongEngine.TICK_LOSE:
+                engine.computerScores();
+                break;
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
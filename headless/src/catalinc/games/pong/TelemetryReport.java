@@ -0,0 +1,128 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Summarizes a telemetry log and its rotated files, e.g. one pulled from a device.
+ * <p/>
+ * Usage: TelemetryReport [-g matches] [-s max file MB] log
+ * <p/>
+ * With -g the log is first filled by that many headless matches at all difficulties, recording like the game thread
+ * does, which also measures what queueing a record costs the game thread. Matches run much faster than real time,
+ * so the generator waits when the queue is full instead of dropping records like the game would.
+ */
+public class TelemetryReport {
+
+    private static final int  FILES          = 4;
+    private static final int  QUEUE_CAPACITY = 1024;
+    private static final long TICK_NANOS     = 1000000000L / 60;
+    private static final long MAX_TICKS      = 1000000L;
+
+    public static void main(String[] args) throws IOException {
+        int matches = 0;
+        long maxFileBytes = 1024 * 1024;
+        File log = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-g".equals(args[i])) {
+                matches = Integer.parseInt(args[++i]);
+            } else if ("-s".equals(args[i])) {
+                maxFileBytes = (long) (Double.parseDouble(args[++i]) * 1024 * 1024);
+            } else {
+                log = new File(args[i]);
+            }
+        }
+        if (log == null) {
+            System.err.println("Usage: TelemetryReport [-g matches] [-s max file MB] log");
+            System.exit(2);
+        }
+
+        if (matches > 0) {
+            generate(log, matches, maxFileBytes);
+        }
+
+        long start = System.nanoTime();
+        TelemetrySummary summary = new TelemetrySummary();
+        summary.readRotated(log, FILES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.print(summary.summary());
+        System.out.printf("read in %.3f s, %.1f M records/sec%n", seconds, summary.records / seconds / 1e6);
+    }
+
+    /**
+     * Play matches between the HeadlessMatch human bot and the AI, recording hits and points.
+     */
+    private static void generate(File log, int matches, long maxFileBytes) throws IOException {
+        TelemetryWriter telemetry = new TelemetryWriter(log, maxFileBytes, FILES, QUEUE_CAPACITY);
+        long ticks = 0;
+        long records = 0;
+        long offerNanos = 0;
+        long waits = 0;
+        for (int m = 0; m < matches; m++) {
+            PongEngine engine = new PongEngine(25, 85, 15, m);
+            engine.setDifficulty(m % 3);
+            engine.setSize(800, 480);
+            Random humanRandom = new Random(~m);
+            Player human = engine.mHumanPlayer;
+            Ball ball = engine.mBall;
+            int rallyHits = 0;
+            long roundTicks = 0;
+            long matchTicks = 0;
+            while (human.score < 11 && engine.mComputerPlayer.score < 11 && matchTicks++ < MAX_TICKS) {
+                if (humanRandom.nextFloat() < 0.5f) {
+                    if (human.top > ball.cy) {
+                        engine.moveHumanPaddle(-PongEngine.PHYS_PADDLE_SPEED);
+                    } else if (human.top + human.paddleHeight < ball.cy) {
+                        engine.moveHumanPaddle(PongEngine.PHYS_PADDLE_SPEED);
+                    }
+                }
+                int result = engine.tick();
+                ticks++;
+                roundTicks++;
+                int events = engine.getEvents();
+                if ((events & (PongEngine.EVENT_HUMAN_PADDLE | PongEngine.EVENT_COMPUTER_PADDLE)) != 0) {
+                    rallyHits++;
+                    int player = (events & PongEngine.EVENT_HUMAN_PADDLE) != 0
+                                 ? TelemetryWriter.PLAYER_HUMAN : TelemetryWriter.PLAYER_COMPUTER;
+                    float speed = (float) Math.sqrt(ball.dx * ball.dx + ball.dy * ball.dy);
+                    long t = System.nanoTime();
+                    boolean queued = telemetry.hit(ticks, player, engine.getHitPosition(), speed);
+                    offerNanos += System.nanoTime() - t;
+                    while (!queued) {
+                        waits++;
+                        Thread.yield();
+                        queued = telemetry.hit(ticks, player, engine.getHitPosition(), speed);
+                    }
+                    records++;
+                }
+                if (result != PongEngine.TICK_PLAY) {
+                    int winner = result == PongEngine.TICK_WIN
+                                 ? TelemetryWriter.PLAYER_HUMAN : TelemetryWriter.PLAYER_COMPUTER;
+                    float seconds = roundTicks * TICK_NANOS / 1e9f;
+                    long t = System.nanoTime();
+                    boolean queued = telemetry.point(ticks, winner, rallyHits, seconds);
+                    offerNanos += System.nanoTime() - t;
+                    while (!queued) {
+                        waits++;
+                        Thread.yield();
+                        queued = telemetry.point(ticks, winner, rallyHits, seconds);
+                    }
+                    records++;
+                    rallyHits = 0;
+                    roundTicks = 0;
+                    if (result == PongEngine.TICK_WIN) {
+                        engine.humanScores();
+                    } else {
+                        engine.computerScores();
+                    }
+                }
+            }
+        }
+        telemetry.close();
+        System.out.printf("generated %d records in %d ticks (%.1f hours of play), %.0f ns per record on the game thread, "
+                          + "queue full %d times%n", records, ticks, ticks * TICK_NANOS / 3.6e12,
+                          offerNanos / (double) records, waits);
+    }
+
+}
@@ -1,19 +1,31 @@
 package catalinc.games.pong;
 
-import android.graphics.Paint;
-
 class Ball {
 
     float cx;
     float cy;
     float dx;
     float dy;
+    float prevCx;
+    float prevCy;
     int radius;
-    Paint paint;
 
-    Ball(int radius, Paint paint) {
+    Ball(int radius) {
         this.radius = radius;
-        this.paint = paint;
+    }
+
+    /**
+     * @return ball x interpolated between previous and current tick.
+     */
+    float lerpX(float alpha) {
+        return prevCx + (cx - prevCx) * alpha;
+    }
+
+    /**
+     * @return ball y interpolated between previous and current tick.
+     */
+    float lerpY(float alpha) {
+        return prevCy + (cy - prevCy) * alpha;
     }
 
 }
@@ -0,0 +1,155 @@
+package catalinc.games.pong;
+
+/**
+ * The draw commands of one frame, recorded into preallocated primitive arrays.
+ * <p/>
+ * The op stream holds an op code followed by its int arguments, float and char arguments go to their own arrays
+ * in the same order. Paints are referred to by id, the replaying side maps them to real paints. Recording never
+ * allocates, so a frame can be recorded by the simulation and replayed later on another thread.
+ */
+class DrawList {
+
+    /**
+     * Arena background: width, height.
+     */
+    static final int OP_BACKGROUND = 1;
+    /**
+     * Paddle sprite: paddle, glow (0 or 1); left, top.
+     */
+    static final int OP_PADDLE     = 2;
+    /**
+     * Circle: paint; x, y, radius.
+     */
+    static final int OP_CIRCLE     = 3;
+    /**
+     * Points: paint, count; count floats as x, y pairs.
+     */
+    static final int OP_POINTS     = 4;
+    /**
+     * Text: paint, length; x, y; length chars.
+     */
+    static final int OP_TEXT       = 5;
+
+    private static final int MAX_OPS   = 64;
+    private static final int MAX_CHARS = 1024;
+
+    final int[]   ops;
+    final float[] floats;
+    final char[]  chars;
+
+    int opCount;
+    int floatCount;
+    int charCount;
+
+    /**
+     * Changes when cached sprites must be rendered again.
+     */
+    int spriteGeneration;
+
+    /**
+     * Obstacles drawn with the arena background, null for none.
+     */
+    ObstacleGrid obstacles;
+
+    /**
+     * QualityGovernor tier the frame is drawn at.
+     */
+    int quality;
+
+    /**
+     * Commands are in world units, this maps them to surface pixels.
+     */
+    final Viewport viewport;
+
+    /**
+     * @param maxPoints largest number of points drawn in one frame.
+     */
+    DrawList(int maxPoints) {
+        ops = new int[MAX_OPS * 3];
+        floats = new float[MAX_OPS * 3 + 2 * maxPoints];
+        chars = new char[MAX_CHARS];
+        viewport = new Viewport();
+    }
+
+    void reset() {
+        opCount = 0;
+        floatCount = 0;
+        charCount = 0;
+    }
+
+    void background(int width, int height) {
+        op(OP_BACKGROUND, width, height);
+    }
+
+    void paddle(int paddle, boolean glow, float left, float top) {
+        op(OP_PADDLE, paddle, glow ? 1 : 0);
+        floats[floatCount++] = left;
+        floats[floatCount++] = top;
+    }
+
+    void circle(int paint, float x, float y, float radius) {
+        ops[opCount++] = OP_CIRCLE;
+        ops[opCount++] = paint;
+        floats[floatCount++] = x;
+        floats[floatCount++] = y;
+        floats[floatCount++] = radius;
+    }
+
+    /**
+     * @param count number of floats, twice the number of points.
+     */
+    void points(int paint, float[] points, int count) {
+        points(paint, points, 0, count);
+    }
+
+    /**
+     * @param offset index of the first float in points.
+     */
+    void points(int paint, float[] points, int offset, int count) {
+        op(OP_POINTS, paint, count);
+        System.arraycopy(points, offset, floats, floatCount, count);
+        floatCount += count;
+    }
+
+    void text(int paint, char[] text, int length, float x, float y) {
+        op(OP_TEXT, paint, length);
+        floats[floatCount++] = x;
+        floats[floatCount++] = y;
+        System.arraycopy(text, 0, chars, charCount, length);
+        charCount += length;
+    }
+
+    /**
+     * @return true if both lists hold the same commands, e.g. to compare recorded frames.
+     */
+    boolean contentEquals(DrawList other) {
+        if (opCount != other.opCount || floatCount != other.floatCount || charCount != other.charCount
+            || spriteGeneration != other.spriteGeneration || obstacles != other.obstacles
+            || quality != other.quality || !viewport.sameAs(other.viewport)) {
+            return false;
+        }
+        for (int i = 0; i < opCount; i++) {
+            if (ops[i] != other.ops[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < floatCount; i++) {
+            if (Float.floatToRawIntBits(floats[i]) != Float.floatToRawIntBits(other.floats[i])) {
+                return false;
+            }
+        }
+        for (int i = 0; i < charCount; i++) {
+            if (chars[i] != other.chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void op(int op, int a, int b) {
+        ops[opCount++] = op;
+        ops[opCount++] = a;
+        ops[opCount++] = b;
+    }
+
+}
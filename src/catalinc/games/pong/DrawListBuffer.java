@@ -0,0 +1,118 @@
+package catalinc.games.pong;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Triple buffer of draw lists between one recording and one replaying thread.
+ * <p/>
+ * The recorder always has a list of its own to fill, the replayer always gets the newest complete list and
+ * frames it was too slow for are skipped. Lists are swapped with a single atomic exchange, neither side ever
+ * waits for the other except the replayer when there is nothing new to draw.
+ */
+class DrawListBuffer {
+
+    private static final int INDEX_MASK = 3;
+    private static final int NEW        = 4;
+
+    private final DrawList[] mLists;
+
+    /**
+     * Index of the list being recorded, recording thread only.
+     */
+    private int mWriting;
+    /**
+     * Index of the list being replayed, replaying thread only.
+     */
+    private int mReading;
+    /**
+     * Index of the last published list, with NEW set until the replayer takes it.
+     */
+    private final AtomicInteger mReady;
+
+    private volatile Thread  mWaiter;
+    /**
+     * Set by close() to make await() return, cleared by open() for the next replaying thread.
+     */
+    private volatile boolean mClosed;
+
+    DrawListBuffer(int maxPoints) {
+        mLists = new DrawList[3];
+        for (int i = 0; i < mLists.length; i++) {
+            mLists[i] = new DrawList(maxPoints);
+        }
+        mWriting = 0;
+        mReading = 1;
+        mReady = new AtomicInteger(2);
+    }
+
+    /**
+     * @return an empty list to record the next frame into.
+     */
+    DrawList beginFrame() {
+        DrawList list = mLists[mWriting];
+        list.reset();
+        return list;
+    }
+
+    /**
+     * Hand the list returned by beginFrame() to the replayer.
+     */
+    void publish() {
+        mWriting = mReady.getAndSet(mWriting | NEW) & INDEX_MASK;
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * @return the newest published list if the replayer has not taken it yet, null otherwise.
+     */
+    DrawList poll() {
+        if ((mReady.get() & NEW) == 0) {
+            return null;
+        }
+        mReading = mReady.getAndSet(mReading) & INDEX_MASK;
+        return mLists[mReading];
+    }
+
+    /**
+     * Wait for a new list.
+     *
+     * @return the newest published list, null if close() was called or the thread was interrupted.
+     */
+    DrawList await() {
+        DrawList list = poll();
+        if (list != null) {
+            return list;
+        }
+        // published before checking mClosed so that close() either sees the waiter or is seen here
+        mWaiter = Thread.currentThread();
+        while ((list = poll()) == null && !mClosed && !Thread.currentThread().isInterrupted()) {
+            // returns on publish(), close() or spuriously, the loop tells them apart
+            LockSupport.park(this);
+        }
+        mWaiter = null;
+        return list;
+    }
+
+    /**
+     * Let await() wait again, before starting a new replaying thread.
+     */
+    void open() {
+        mClosed = false;
+    }
+
+    /**
+     * Make a waiting or the next await() return.
+     */
+    void close() {
+        mClosed = true;
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package catalinc.games.pong;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Replays a DrawList onto a canvas. Only used from the drawing thread, it owns the sprite cache.
+ */
+class DrawListRenderer {
+
+    private final SpriteCache mSpriteCache;
+    /**
+     * Indexed by the paint ids used when recording.
+     */
+    private final Paint[]     mPaints;
+    private final Player[]    mPaddles;
+    private final Paint[]     mPaddlePaints;
+
+    private int          mSpriteGeneration;
+    private ObstacleGrid mObstacles;
+    private int          mQuality;
+    private float        mScale;
+
+    DrawListRenderer(SpriteCache spriteCache, Paint[] paints, Player human, Paint humanPaint,
+                     Player computer, Paint computerPaint) {
+        mSpriteCache = spriteCache;
+        mPaints = paints;
+        mPaddles = new Player[2];
+        mPaddlePaints = new Paint[2];
+        mPaddles[SpriteCache.PADDLE_HUMAN] = human;
+        mPaddlePaints[SpriteCache.PADDLE_HUMAN] = humanPaint;
+        mPaddles[SpriteCache.PADDLE_COMPUTER] = computer;
+        mPaddlePaints[SpriteCache.PADDLE_COMPUTER] = computerPaint;
+        mQuality = -1;
+        mScale = 1;
+    }
+
+    void draw(Canvas canvas, DrawList list) {
+        if (list.spriteGeneration != mSpriteGeneration) {
+            mSpriteGeneration = list.spriteGeneration;
+            mSpriteCache.invalidate();
+        }
+        if (list.quality != mQuality) {
+            mQuality = list.quality;
+            applyQuality(mQuality);
+        }
+        if (list.obstacles != mObstacles) {
+            mObstacles = list.obstacles;
+            mSpriteCache.setObstacles(mObstacles);
+        }
+        final Viewport viewport = list.viewport;
+        if (viewport.scale != mScale) {
+            mScale = viewport.scale;
+            mSpriteCache.setScale(mScale);
+        }
+        if (viewport.hasBars()) {
+            canvas.drawColor(Color.BLACK);
+        }
+        canvas.save();
+        canvas.translate(viewport.left, viewport.top);
+        canvas.scale(viewport.scale, viewport.scale);
+        final int[] ops = list.ops;
+        final float[] floats = list.floats;
+        int f = 0;
+        int c = 0;
+        for (int i = 0; i < list.opCount; ) {
+            switch (ops[i]) {
+                case DrawList.OP_BACKGROUND:
+                    mSpriteCache.drawBackground(canvas, ops[i + 1], ops[i + 2]);
+                    i += 3;
+                    break;
+                case DrawList.OP_PADDLE: {
+                    final int paddle = ops[i + 1];
+                    mSpriteCache.drawPaddle(canvas, paddle, mPaddles[paddle], mPaddlePaints[paddle], ops[i + 2] != 0,
+                                            floats[f], floats[f + 1]);
+                    f += 2;
+                    i += 3;
+                    break;
+                }
+                case DrawList.OP_CIRCLE:
+                    canvas.drawCircle(floats[f], floats[f + 1], floats[f + 2], mPaints[ops[i + 1]]);
+                    f += 3;
+                    i += 2;
+                    break;
+                case DrawList.OP_POINTS: {
+                    final int count = ops[i + 2];
+                    canvas.drawPoints(floats, f, count, mPaints[ops[i + 1]]);
+                    f += count;
+                    i += 3;
+                    break;
+                }
+                case DrawList.OP_TEXT: {
+                    final int length = ops[i + 2];
+                    canvas.drawText(list.chars, c, length, floats[f], floats[f + 1], mPaints[ops[i + 1]]);
+                    c += length;
+                    f += 2;
+                    i += 3;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown draw op " + ops[i]);
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     * Paints are only changed here, on the thread that draws with them.
+     */
+    private void applyQuality(int tier) {
+        final boolean antiAlias = QualityGovernor.antiAlias(tier);
+        for (Paint paint : mPaints) {
+            if (paint != null) {
+                paint.setAntiAlias(antiAlias);
+            }
+        }
+        for (Paint paint : mPaddlePaints) {
+            paint.setAntiAlias(antiAlias);
+        }
+        mSpriteCache.setQuality(antiAlias, QualityGovernor.dashedMedian(tier));
+    }
+
+}
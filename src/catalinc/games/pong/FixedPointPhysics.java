@@ -0,0 +1,287 @@
+package catalinc.games.pong;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ball and paddle physics in Q16.16 fixed point, bit for bit identical on every platform.
+ * <p/>
+ * Positions and velocities are ints with 16 fractional bits, bounce angles use a sine table built once with
+ * StrictMath, whose results are specified exactly. The float fields of Ball and Player are only a copy for
+ * drawing and for the AI, which uses nothing but basic float arithmetic.
+ * <p/>
+ * The ball moves at most 8 world units a tick, less than a paddle is wide, so overlap tests at the end of each tick
+ * cannot miss a paddle and no sweep is needed.
+ */
+class FixedPointPhysics {
+
+    static final int FRACTION_BITS = 16;
+    static final int ONE           = 1 << FRACTION_BITS;
+
+    /**
+     * A power of two, so multiplying by it is exact and the same as dividing by ONE.
+     */
+    private static final float TO_FLOAT = 1.0f / ONE;
+
+    /**
+     * Size in bytes of the state written by writeState().
+     */
+    static final int STATE_SIZE = 8 * 4;
+
+    /**
+     * Sine of the bounce angle, sampled over normalized hit positions from -1 to 1.
+     */
+    private static final int   TRIG_STEPS = 256;
+    private static final int[] SIN        = new int[TRIG_STEPS + 1];
+    private static final int[] COS        = new int[TRIG_STEPS + 1];
+
+    static {
+        for (int i = 0; i <= TRIG_STEPS; i++) {
+            double angle = (2.0 * i / TRIG_STEPS - 1) * PongEngine.PHYS_MAX_BOUNCE_ANGLE;
+            SIN[i] = (int) StrictMath.round(StrictMath.sin(angle) * ONE);
+            COS[i] = (int) StrictMath.round(StrictMath.cos(angle) * ONE);
+        }
+    }
+
+    private final PongEngine mEngine;
+    private final Ball       mBall;
+    private final Player     mHuman;
+    private final Player     mComputer;
+
+    private int mBallX;
+    private int mBallY;
+    private int mBallDx;
+    private int mBallDy;
+    private int mHumanLeft;
+    private int mHumanTop;
+    private int mComputerLeft;
+    private int mComputerTop;
+
+    FixedPointPhysics(PongEngine engine) {
+        mEngine = engine;
+        mBall = engine.mBall;
+        mHuman = engine.mHumanPlayer;
+        mComputer = engine.mComputerPlayer;
+    }
+
+    static int toFixed(float value) {
+        return Math.round(value * ONE);
+    }
+
+    static float toFloat(int value) {
+        return value * TO_FLOAT;
+    }
+
+    static int multiply(int a, int b) {
+        return (int) (((long) a * b) >> FRACTION_BITS);
+    }
+
+    static int divide(int a, int b) {
+        return (int) (((long) a << FRACTION_BITS) / b);
+    }
+
+    /**
+     * Take over the current float positions when switching from the float physics.
+     */
+    void load() {
+        loadBall();
+        mHumanLeft = toFixed(mHuman.left);
+        mHumanTop = toFixed(mHuman.top);
+        mComputerLeft = toFixed(mComputer.left);
+        mComputerTop = toFixed(mComputer.top);
+    }
+
+    /**
+     * Take over the float ball, e.g. after a new round put it on integer coordinates. The float paddles are
+     * rounded copies, the fixed ones are kept.
+     */
+    void loadBall() {
+        mBallX = toFixed(mBall.cx);
+        mBallY = toFixed(mBall.cy);
+        mBallDx = toFixed(mBall.dx);
+        mBallDy = toFixed(mBall.dy);
+    }
+
+    void writeState(ByteBuffer b) {
+        b.putInt(mBallX);
+        b.putInt(mBallY);
+        b.putInt(mBallDx);
+        b.putInt(mBallDy);
+        b.putInt(mHumanLeft);
+        b.putInt(mHumanTop);
+        b.putInt(mComputerLeft);
+        b.putInt(mComputerTop);
+    }
+
+    void readState(ByteBuffer b) {
+        mBallX = b.getInt();
+        mBallY = b.getInt();
+        mBallDx = b.getInt();
+        mBallDy = b.getInt();
+        mHumanLeft = b.getInt();
+        mHumanTop = b.getInt();
+        mComputerLeft = b.getInt();
+        mComputerTop = b.getInt();
+        publishBall();
+        mHuman.left = toFloat(mHumanLeft);
+        mHuman.top = toFloat(mHumanTop);
+        mComputer.left = toFloat(mComputerLeft);
+        mComputer.top = toFloat(mComputerTop);
+    }
+
+    /**
+     * Same clamping as PongEngine.movePlayer(), the requested position is rounded to fixed point first.
+     */
+    void movePlayer(Player player, float left, float top) {
+        final int width = mEngine.getWidth() << FRACTION_BITS;
+        final int height = mEngine.getHeight() << FRACTION_BITS;
+        final int paddleWidth = player.paddleWidth << FRACTION_BITS;
+        final int paddleHeight = player.paddleHeight << FRACTION_BITS;
+        final int margin = 2 << FRACTION_BITS;
+        int l = toFixed(left);
+        int t = toFixed(top);
+        if (l < margin) {
+            l = margin;
+        } else if (l + paddleWidth >= width - margin) {
+            l = width - paddleWidth - margin;
+        }
+        if (t < 0) {
+            t = 0;
+        } else if (t + paddleHeight >= height) {
+            t = height - paddleHeight - ONE;
+        }
+        if (player == mHuman) {
+            mHumanLeft = l;
+            mHumanTop = t;
+        } else {
+            mComputerLeft = l;
+            mComputerTop = t;
+        }
+        player.left = toFloat(l);
+        player.top = toFloat(t);
+    }
+
+    /**
+     * Move the ball one tick.
+     *
+     * @return PongEngine.TICK_WIN, TICK_LOSE or TICK_PLAY.
+     */
+    int moveBall() {
+        final int r = mBall.radius << FRACTION_BITS;
+        final int width = mEngine.getWidth() << FRACTION_BITS;
+        final int height = mEngine.getHeight() << FRACTION_BITS;
+
+        mBallX += mBallDx;
+        mBallY += mBallDy;
+
+        // reflect off the top and bottom walls
+        final int top = r;
+        final int bottom = height - ONE - r;
+        if (mBallY < top) {
+            mBallY = 2 * top - mBallY;
+            mBallDy = -mBallDy;
+            mEngine.addEvent(PongEngine.EVENT_WALL);
+        } else if (mBallY > bottom) {
+            mBallY = 2 * bottom - mBallY;
+            mBallDy = -mBallDy;
+            mEngine.addEvent(PongEngine.EVENT_WALL);
+        }
+
+        if (mBallDx < 0 && touches(mHuman, mHumanLeft, mHumanTop, r)) {
+            bounce(mHuman, mHumanTop, 1);
+            mBallX = mHumanLeft + (mHuman.paddleWidth << FRACTION_BITS) + r;
+            mEngine.addEvent(PongEngine.EVENT_HUMAN_PADDLE);
+        } else if (mBallDx > 0 && touches(mComputer, mComputerLeft, mComputerTop, r)) {
+            bounce(mComputer, mComputerTop, -1);
+            mBallX = mComputerLeft - r;
+            mEngine.addEvent(PongEngine.EVENT_COMPUTER_PADDLE);
+        }
+
+        int result = PongEngine.TICK_PLAY;
+        if (mBallX + r >= width - ONE) {
+            result = PongEngine.TICK_WIN;    // human plays on left
+        } else if (mBallX <= r) {
+            result = PongEngine.TICK_LOSE;
+        }
+        publishBall();
+        return result;
+    }
+
+    private boolean touches(Player player, int left, int top, int r) {
+        return touches(mBallX, mBallY, r, left, top,
+                       player.paddleWidth << FRACTION_BITS, player.paddleHeight << FRACTION_BITS);
+    }
+
+    /**
+     * Same bounce as PongEngine.handleCollision(), with the angle from the sine table.
+     */
+    private void bounce(Player player, int top, int direction) {
+        final int position = bouncePosition(mBallY, top, player.paddleHeight);
+        mBallDx = bounceDx(position, direction);
+        mBallDy = bounceDy(position);
+        mEngine.setHitPosition(toFloat(position) / (TRIG_STEPS / 2) - 1);
+        player.collision = PongEngine.PHYS_COLLISION_FRAMES;
+    }
+
+    /**
+     * @return true if the ball overlaps the paddle, all arguments in fixed point.
+     */
+    static boolean touches(int x, int y, int r, int left, int top, int paddleWidth, int paddleHeight) {
+        final int right = left + paddleWidth;
+        final int bottom = top + paddleHeight;
+        final int closestX = x < left ? left : (x > right ? right : x);
+        final int closestY = y < top ? top : (y > bottom ? bottom : y);
+        final long dx = x - closestX;
+        final long dy = y - closestY;
+        return dx * dx + dy * dy <= (long) r * r;
+    }
+
+    /**
+     * @param paddleHeight in world units, halved with integer division like the float physics does.
+     * @return where the ball hit the paddle as a position in the sine table, with 16 fractional bits.
+     */
+    static int bouncePosition(int ballY, int top, int paddleHeight) {
+        final int halfHeight = (paddleHeight / 2) << FRACTION_BITS;
+        int normalized = divide(top + halfHeight - ballY, halfHeight);
+        if (normalized > ONE) {
+            normalized = ONE;
+        } else if (normalized < -ONE) {
+            normalized = -ONE;
+        }
+        return (normalized + ONE) * (TRIG_STEPS / 2);
+    }
+
+    /**
+     * @param direction 1 to send the ball right, -1 to send it left.
+     */
+    static int bounceDx(int position, int direction) {
+        return direction * multiply(PongEngine.PHYS_BALL_SPEED << FRACTION_BITS, lookup(COS, position));
+    }
+
+    static int bounceDy(int position) {
+        return -multiply(PongEngine.PHYS_BALL_SPEED << FRACTION_BITS, lookup(SIN, position));
+    }
+
+    /**
+     * Interpolate between neighbouring table entries.
+     */
+    private static int lookup(int[] table, int position) {
+        final int index = position >> FRACTION_BITS;
+        if (index >= TRIG_STEPS) {
+            return table[TRIG_STEPS];
+        }
+        final int fraction = position & (ONE - 1);
+        return table[index] + multiply(table[index + 1] - table[index], fraction);
+    }
+
+    /**
+     * Copy the fixed point ball to the float fields used for drawing and by the AI. The float paddles are updated
+     * by movePlayer().
+     */
+    private void publishBall() {
+        mBall.cx = toFloat(mBallX);
+        mBall.cy = toFloat(mBallY);
+        mBall.dx = toFloat(mBallDx);
+        mBall.dy = toFloat(mBallDy);
+    }
+
+}
@@ -0,0 +1,77 @@
+package catalinc.games.pong;
+
+/**
+ * Fixed rate physics clock.
+ * <p/>
+ * The time elapsed between frames is accumulated and consumed in whole ticks. What is left over gives the
+ * position between the last two ticks to draw at.
+ */
+class FixedTimestep {
+
+    private final long mTickNanos;
+    private final int  mMaxTicks;
+    private final long mStallNanos;
+
+    private long mLastTime;
+    private long mAccumulator;
+    private long mDroppedTicks;
+
+    /**
+     * @param maxTicks   upper bound of ticks run for one frame, to avoid the spiral of death on slow devices.
+     * @param stallNanos a frame longer than this is a stall (pause, GC, surface change) and counts as one tick.
+     */
+    FixedTimestep(long tickNanos, int maxTicks, long stallNanos) {
+        mTickNanos = tickNanos;
+        mMaxTicks = maxTicks;
+        mStallNanos = stallNanos;
+    }
+
+    void start(long now) {
+        mLastTime = now;
+        mAccumulator = 0;
+    }
+
+    /**
+     * @param running whether the simulation advances, time passing otherwise is not accumulated.
+     * @return number of ticks to run for a frame starting at the given time.
+     */
+    int frame(long now, boolean running) {
+        long elapsed = now - mLastTime;
+        mLastTime = now;
+        if (elapsed > mStallNanos || elapsed < 0) {
+            elapsed = mTickNanos;
+        }
+        if (!running) {
+            mAccumulator = 0;
+            return 0;
+        }
+        mAccumulator += elapsed;
+        int ticks = (int) Math.min(mAccumulator / mTickNanos, mMaxTicks);
+        mAccumulator -= ticks * mTickNanos;
+        if (mAccumulator >= mTickNanos) {
+            // too far behind, drop the backlog instead of slowing down every next frame
+            mDroppedTicks += mAccumulator / mTickNanos;
+            mAccumulator %= mTickNanos;
+        }
+        return ticks;
+    }
+
+    /**
+     * The simulation stopped part way through the ticks of a frame.
+     */
+    void stop() {
+        mAccumulator = 0;
+    }
+
+    /**
+     * @return position between the previous (0) and current (1) tick.
+     */
+    float alpha() {
+        return (float) mAccumulator / mTickNanos;
+    }
+
+    long getDroppedTicks() {
+        return mDroppedTicks;
+    }
+
+}
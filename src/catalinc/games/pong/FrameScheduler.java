@@ -0,0 +1,32 @@
+package catalinc.games.pong;
+
+/**
+ * Decides when the game loop starts its next frame.
+ * <p/>
+ * Frame timestamps are in nanoseconds, in the System.nanoTime() time base for real schedulers.
+ */
+interface FrameScheduler {
+
+    /**
+     * Wait until the next frame should start.
+     *
+     * @return timestamp of the frame.
+     */
+    long awaitFrame() throws InterruptedException;
+
+    /**
+     * @return current time on the scheduler clock.
+     */
+    long now();
+
+    /**
+     * Make a waiting or the next awaitFrame() call return at once, e.g. when the loop is being stopped.
+     */
+    void wakeUp();
+
+    /**
+     * Free threads or callbacks held by the scheduler, it is not used afterwards.
+     */
+    void release();
+
+}
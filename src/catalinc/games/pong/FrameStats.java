@@ -0,0 +1,186 @@
+package catalinc.games.pong;
+
+/**
+ * Per-frame timing of the game loop phases.
+ * <p/>
+ * Durations are measured by the caller with System.nanoTime() and kept in preallocated histograms. Recording and
+ * formatting the overlay lines never allocate, only summary() does.
+ * <p/>
+ * Each phase is recorded by one thread at a time, the game thread or the render thread. A reset is only requested
+ * from other threads, every phase is cleared by the thread recording it, before its next value.
+ */
+class FrameStats {
+
+    static final int PHASE_LOCK    = 0;
+    static final int PHASE_PHYSICS = 1;
+    static final int PHASE_DRAW    = 2;
+    static final int PHASE_POST    = 3;
+    static final int PHASE_SLEEP   = 4;
+    static final int PHASE_INPUT   = 5;
+    static final int PHASE_FRAME   = 6;
+    static final int PHASE_COUNT   = 7;
+
+    private static final char[][] PHASE_NAMES = {
+            "lock  ".toCharArray(),
+            "phys  ".toCharArray(),
+            "draw  ".toCharArray(),
+            "post  ".toCharArray(),
+            "sleep ".toCharArray(),
+            "input ".toCharArray(),
+            "frame ".toCharArray()
+    };
+
+    /**
+     * Long enough for the longest overlay line.
+     */
+    static final int LINE_LENGTH = 64;
+
+    private final LatencyHistogram[] mHistograms;
+    private final long               mDeadlineNanos;
+
+    private long mFrames;
+    private long mMissedDeadlines;
+
+    private volatile int mResets;
+    /**
+     * Value of mResets each phase was last cleared for, written by the thread recording the phase.
+     */
+    private final int[]  mResetsSeen;
+
+    /**
+     * @param periodNanos expected time between frames. Frames taking longer than one and a half periods are counted
+     *                    as missed, vsync jitter around a single period is not.
+     */
+    FrameStats(long periodNanos) {
+        mDeadlineNanos = periodNanos + periodNanos / 2;
+        mResetsSeen = new int[PHASE_COUNT];
+        mHistograms = new LatencyHistogram[PHASE_COUNT];
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    void record(int phase, long nanos) {
+        clearIfReset(phase);
+        mHistograms[phase].record(nanos / 1000);
+    }
+
+    /**
+     * Record the time between the start of two consecutive frames.
+     */
+    void recordFrame(long nanos) {
+        clearIfReset(PHASE_FRAME);
+        mHistograms[PHASE_FRAME].record(nanos / 1000);
+        mFrames++;
+        if (nanos > mDeadlineNanos) {
+            mMissedDeadlines++;
+        }
+    }
+
+    /**
+     * Start over, from any thread but one at a time. Each phase is cleared when it is recorded next.
+     */
+    void reset() {
+        mResets++;
+    }
+
+    private void clearIfReset(int phase) {
+        final int resets = mResets;
+        if (mResetsSeen[phase] != resets) {
+            mResetsSeen[phase] = resets;
+            mHistograms[phase].reset();
+            if (phase == PHASE_FRAME) {
+                mFrames = 0;
+                mMissedDeadlines = 0;
+            }
+        }
+    }
+
+    long getFrames() {
+        return mFrames;
+    }
+
+    long getMissedDeadlines() {
+        return mMissedDeadlines;
+    }
+
+    LatencyHistogram getHistogram(int phase) {
+        return mHistograms[phase];
+    }
+
+    /**
+     * Format one phase as "name p50 p95 p99 max" in milliseconds.
+     *
+     * @return number of chars written.
+     */
+    int formatPhase(int phase, char[] out) {
+        LatencyHistogram h = mHistograms[phase];
+        char[] name = PHASE_NAMES[phase];
+        System.arraycopy(name, 0, out, 0, name.length);
+        int pos = name.length;
+        pos = appendMillis(out, pos, h.getPercentile(50));
+        pos = appendMillis(out, pos, h.getPercentile(95));
+        pos = appendMillis(out, pos, h.getPercentile(99));
+        pos = appendMillis(out, pos, h.getMax());
+        return pos;
+    }
+
+    /**
+     * Format the missed deadline count as "missed N / frames".
+     *
+     * @return number of chars written.
+     */
+    int formatMissed(char[] out) {
+        int pos = 0;
+        pos = appendChars(out, pos, "missed ");
+        pos = appendLong(out, pos, mMissedDeadlines);
+        pos = appendChars(out, pos, " / ");
+        pos = appendLong(out, pos, mFrames);
+        return pos;
+    }
+
+    /**
+     * @param gcCount garbage collections since the last reset, negative if unknown.
+     * @return multi-line human readable summary.
+     */
+    String summary(int gcCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("phase  p50 p95 p99 max (ms)\n");
+        char[] line = new char[LINE_LENGTH];
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            sb.append(line, 0, formatPhase(i, line)).append('\n');
+        }
+        sb.append(line, 0, formatMissed(line)).append('\n');
+        sb.append("gc ").append(gcCount < 0 ? "n/a" : String.valueOf(gcCount));
+        return sb.toString();
+    }
+
+    /**
+     * Append microseconds as milliseconds with two decimals, followed by a space.
+     */
+    private static int appendMillis(char[] out, int pos, long micros) {
+        long hundredths = (micros + 5) / 10;
+        pos = appendLong(out, pos, hundredths / 100);
+        out[pos++] = '.';
+        int fraction = (int) (hundredths % 100);
+        out[pos++] = (char) ('0' + fraction / 10);
+        out[pos++] = (char) ('0' + fraction % 10);
+        out[pos++] = ' ';
+        return pos;
+    }
+
+    private static int appendLong(char[] out, int pos, long value) {
+        if (value >= 10) {
+            pos = appendLong(out, pos, value / 10);
+        }
+        out[pos++] = (char) ('0' + value % 10);
+        return pos;
+    }
+
+    private static int appendChars(char[] out, int pos, String s) {
+        int n = s.length();
+        s.getChars(0, n, out, pos);
+        return pos + n;
+    }
+
+}
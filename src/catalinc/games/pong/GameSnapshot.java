@@ -0,0 +1,124 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Complete game state in a fixed layout binary form.
+ * <p/>
+ * The layout is a small header (magic, version, game state) followed by PongEngine.writeState(). It is written
+ * into a buffer allocated once, so taking a snapshot every tick is cheap enough for rewind, autosave or state
+ * diffing.
+ */
+class GameSnapshot {
+
+    static final int MAGIC   = 0x504f4e53; // "PONS"
+    static final int VERSION = 3; // 3: arena in world units instead of surface pixels
+
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 4;
+
+    static final int SIZE = HEADER_SIZE + PongEngine.STATE_SIZE;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(SIZE);
+
+    /**
+     * @param state game state, one of the PongThread.STATE_* constants.
+     */
+    void save(PongEngine engine, int state) {
+        ByteBuffer b = mBuffer;
+        b.clear();
+        b.putInt(MAGIC);
+        b.putShort((short) VERSION);
+        b.putShort((short) 0); // reserved
+        b.putInt(state);
+        engine.writeState(b);
+    }
+
+    /**
+     * @return the saved game state.
+     * @throws IllegalArgumentException if the snapshot is not valid for this engine.
+     */
+    int restore(PongEngine engine) {
+        ByteBuffer b = mBuffer;
+        b.clear();
+        if (b.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a game snapshot");
+        }
+        int version = b.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version);
+        }
+        b.getShort();
+        int state = b.getInt();
+        engine.readState(b);
+        return state;
+    }
+
+    void copyFrom(GameSnapshot other) {
+        System.arraycopy(other.mBuffer.array(), 0, mBuffer.array(), 0, SIZE);
+    }
+
+    /**
+     * @return offset of the first byte that differs from the other snapshot, -1 if they are identical.
+     */
+    int diff(GameSnapshot other) {
+        byte[] a = mBuffer.array();
+        byte[] b = other.mBuffer.array();
+        for (int i = 0; i < SIZE; i++) {
+            if (a[i] != b[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    byte[] toByteArray() {
+        return mBuffer.array().clone();
+    }
+
+    /**
+     * @throws IllegalArgumentException if data has the wrong size.
+     */
+    void load(byte[] data) {
+        if (data == null || data.length != SIZE) {
+            throw new IllegalArgumentException("Bad snapshot size");
+        }
+        System.arraycopy(data, 0, mBuffer.array(), 0, SIZE);
+    }
+
+    void writeTo(File file) throws IOException {
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            mBuffer.clear();
+            while (mBuffer.hasRemaining()) {
+                channel.write(mBuffer);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return false if the file is too short to be a snapshot.
+     */
+    boolean readFrom(File file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            mBuffer.clear();
+            while (mBuffer.hasRemaining()) {
+                if (channel.read(mBuffer) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package catalinc.games.pong;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer / single consumer queue of touch events.
+ * <p/>
+ * The UI thread offers events, the game thread polls them once per frame. Events are stored in preallocated
+ * primitive arrays, so neither side allocates or blocks. When the queue is full new events are dropped.
+ */
+class InputQueue {
+
+    static final int ACTION_DOWN = 0;
+    static final int ACTION_MOVE = 1;
+    static final int ACTION_UP   = 2;
+
+    private final int     mMask;
+    private final int[]   mActions;
+    private final float[] mXs;
+    private final float[] mYs;
+    private final long[]  mTimes;
+
+    /**
+     * Next slot to read, only advanced by the consumer.
+     */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /**
+     * Next slot to write, only advanced by the producer.
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * Fields of the last polled event, valid until the next poll.
+     */
+    int   action;
+    float x;
+    float y;
+    long  timeNanos;
+
+    /**
+     * @param capacity rounded up to a power of two.
+     */
+    InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mMask = size - 1;
+        mActions = new int[size];
+        mXs = new float[size];
+        mYs = new float[size];
+        mTimes = new long[size];
+    }
+
+    /**
+     * Called by the producer thread only.
+     *
+     * @param timeNanos when the event happened, on the System.nanoTime() clock.
+     * @return false if the queue is full and the event was dropped.
+     */
+    boolean offer(int action, float x, float y, long timeNanos) {
+        final long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            return false;
+        }
+        final int i = (int) tail & mMask;
+        mActions[i] = action;
+        mXs[i] = x;
+        mYs[i] = y;
+        mTimes[i] = timeNanos;
+        // publish the slot after it was written
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer thread only. The event is copied to action, x, y and timeNanos.
+     *
+     * @return false if the queue is empty.
+     */
+    boolean poll() {
+        final long head = mHead.get();
+        if (head == mTail.get()) {
+            return false;
+        }
+        final int i = (int) head & mMask;
+        action = mActions[i];
+        x = mXs[i];
+        y = mYs[i];
+        timeNanos = mTimes[i];
+        // release the slot after it was read
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+}
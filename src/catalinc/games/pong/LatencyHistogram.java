@@ -0,0 +1,88 @@
+package catalinc.games.pong;
+
+/**
+ * Fixed size log-linear histogram of durations in microseconds.
+ * <p/>
+ * Every power of two range is split in SUB_BUCKETS linear buckets, so the relative error stays around 3% from one
+ * microsecond to several seconds. All storage is allocated up front, recording a value never allocates.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS    = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_SHIFT   = 22;
+    private static final long MAX_VALUE  = ((long) (2 * SUB_BUCKETS) << MAX_SHIFT) - 1;
+
+    private final int[] mCounts = new int[(MAX_SHIFT + 2) * SUB_BUCKETS];
+    private long mTotalCount;
+    private long mMax;
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        } else if (micros > MAX_VALUE) {
+            micros = MAX_VALUE;
+        }
+        mCounts[indexOf(micros)]++;
+        mTotalCount++;
+        if (micros > mMax) {
+            mMax = micros;
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mMax = 0;
+    }
+
+    long getTotalCount() {
+        return mTotalCount;
+    }
+
+    long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the smallest recorded value such that the given percentage of values are not greater.
+     */
+    long getPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(mTotalCount * percentile / 100);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,106 @@
+package catalinc.games.pong;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Static obstacles of an arena, independent of the surface size.
+ * <p/>
+ * Levels are text files with one obstacle per line, blank lines and lines starting with # are ignored. Positions and
+ * widths are fractions of the arena width, heights and radii fractions of its height:
+ * <pre>
+ *   brick     left top width height
+ *   bumper    x y radius
+ *   deflector x1 y1 x2 y2 thickness
+ * </pre>
+ * The ball is served from the center of the arena, obstacles there are passed through.
+ */
+class Level {
+
+    static final int KIND_BRICK     = 0;
+    static final int KIND_BUMPER    = 1;
+    static final int KIND_DEFLECTOR = 2;
+
+    /**
+     * Number of parameters stored per obstacle, unused ones are 0.
+     */
+    static final int PARAMS = 5;
+
+    private static final String[] KEYWORDS = {"brick", "bumper", "deflector"};
+    private static final int[]    ARGS     = {4, 3, 5};
+
+    private int     mCount;
+    private byte[]  mKinds;
+    private float[] mParams;
+
+    Level() {
+        mKinds = new byte[16];
+        mParams = new float[16 * PARAMS];
+    }
+
+    /**
+     * @throws IOException if a line is not a valid obstacle, the message tells which.
+     */
+    static Level read(Reader reader) throws IOException {
+        Level level = new Level();
+        BufferedReader in = new BufferedReader(reader);
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            int kind = Arrays.asList(KEYWORDS).indexOf(words[0]);
+            if (kind < 0) {
+                throw new IOException("Level line " + lineNumber + ": unknown obstacle " + words[0]);
+            }
+            if (words.length != ARGS[kind] + 1) {
+                throw new IOException("Level line " + lineNumber + ": " + words[0] + " takes " + ARGS[kind]
+                                      + " numbers");
+            }
+            float[] params = new float[PARAMS];
+            try {
+                for (int i = 0; i < ARGS[kind]; i++) {
+                    params[i] = Float.parseFloat(words[i + 1]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Level line " + lineNumber + ": " + e.getMessage());
+            }
+            level.add(kind, params[0], params[1], params[2], params[3], params[4]);
+        }
+        return level;
+    }
+
+    void add(int kind, float a, float b, float c, float d, float e) {
+        if (mCount == mKinds.length) {
+            mKinds = Arrays.copyOf(mKinds, 2 * mCount);
+            mParams = Arrays.copyOf(mParams, 2 * mCount * PARAMS);
+        }
+        final int p = mCount * PARAMS;
+        mKinds[mCount] = (byte) kind;
+        mParams[p] = a;
+        mParams[p + 1] = b;
+        mParams[p + 2] = c;
+        mParams[p + 3] = d;
+        mParams[p + 4] = e;
+        mCount++;
+    }
+
+    int count() {
+        return mCount;
+    }
+
+    int kind(int obstacle) {
+        return mKinds[obstacle];
+    }
+
+    float param(int obstacle, int index) {
+        return mParams[obstacle * PARAMS + index];
+    }
+
+}
@@ -0,0 +1,279 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Compact binary log of a match, enough to replay it exactly with MatchReplay.
+ * <p/>
+ * The log starts with everything the round setup depends on (random seed, arena and object sizes, difficulty,
+ * physics mode, scores, obstacles), followed by the inputs: runs of physics ticks and human paddle moves. The game
+ * thread fills preallocated buffers, a background thread opens the file, writes full ones to it and closes it, so
+ * recording never waits for the disk. Not thread safe, callers serialize access.
+ */
+class MatchRecorder {
+
+    static final int  MAGIC   = 0x504f4e47; // "PONG"
+    static final int  VERSION = 3;
+
+    static final byte OP_TICKS = 1;
+    static final byte OP_MOVE  = 2;
+    /**
+     * Arena resize and round reset, no longer written since the arena is the fixed world size. MatchReplay still
+     * decodes them for logs recorded before that.
+     */
+    static final byte OP_SIZE  = 3;
+    static final byte OP_READY = 4;
+    static final byte OP_END   = 5;
+
+    /**
+     * Header flag: the match runs on the fixed point physics.
+     */
+    static final byte FLAG_FIXED_POINT = 1;
+    /**
+     * Header flag: the arena has obstacles, they follow the scores as a count and kind and parameters of each.
+     */
+    static final byte FLAG_LEVEL       = 2;
+
+    private static final int BUFFER_SIZE  = 64 * 1024;
+    private static final int BUFFER_COUNT = 4;
+
+    /**
+     * Largest record, a buffer with less room left is handed to the writer.
+     */
+    private static final int MAX_RECORD = 64;
+
+    private final BlockingQueue<ByteBuffer> mFree;
+    private final BlockingQueue<ByteBuffer> mFull;
+    private final Thread                    mWriter;
+    private final File                      mFile;
+    /**
+     * Recorder of the same file before this one, its writer has to finish before ours opens the file.
+     */
+    private       MatchRecorder             mPrevious;
+
+    private ByteBuffer mBuffer;
+    private int        mPendingTicks;
+
+    private volatile IOException mError;
+
+    /**
+     * @param previous recorder of the same file that may still be writing, null if none.
+     */
+    MatchRecorder(File file, MatchRecorder previous) {
+        mFile = file;
+        mPrevious = previous;
+        mFree = new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT);
+        mFull = new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT + 1);
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFree.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        mBuffer = take();
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "MatchRecorder");
+        mWriter.start();
+    }
+
+    /**
+     * Must be written first, the seed has to be the one the engine random generator was just seeded with.
+     */
+    void header(long seed, PongEngine engine) {
+        Player human = engine.mHumanPlayer;
+        Player computer = engine.mComputerPlayer;
+        ByteBuffer b = room();
+        b.putInt(MAGIC);
+        b.putShort((short) VERSION);
+        b.putLong(seed);
+        b.putInt(engine.getWidth());
+        b.putInt(engine.getHeight());
+        b.putShort((short) human.paddleWidth);
+        b.putShort((short) human.paddleHeight);
+        b.putShort((short) engine.mBall.radius);
+        b.put((byte) engine.getDifficulty());
+        Level level = engine.getLevel();
+        b.put((byte) ((engine.isFixedPoint() ? FLAG_FIXED_POINT : 0) | (level != null ? FLAG_LEVEL : 0)));
+        b.putInt(human.score);
+        b.putInt(computer.score);
+        if (level != null) {
+            b.putShort((short) level.count());
+            for (int i = 0; i < level.count(); i++) {
+                ByteBuffer o = room();
+                o.put((byte) level.kind(i));
+                for (int k = 0; k < Level.PARAMS; k++) {
+                    o.putFloat(level.param(i, k));
+                }
+            }
+        }
+    }
+
+    /**
+     * One physics tick was run, consecutive ticks are stored as a single count.
+     */
+    void tick() {
+        mPendingTicks++;
+    }
+
+    void move(float dy) {
+        ByteBuffer b = room();
+        b.put(OP_MOVE);
+        b.putFloat(dy);
+    }
+
+    /**
+     * Store the final state for verification and close the log. Returns at once, the writer finishes the file in the
+     * background.
+     */
+    void end(PongEngine engine) {
+        Ball ball = engine.mBall;
+        ByteBuffer b = room();
+        b.put(OP_END);
+        b.putInt(engine.mHumanPlayer.score);
+        b.putInt(engine.mComputerPlayer.score);
+        b.putFloat(ball.cx);
+        b.putFloat(ball.cy);
+        b.putFloat(ball.dx);
+        b.putFloat(ball.dy);
+        close();
+    }
+
+    /**
+     * Hand what was recorded to the writer and let it close the file, without waiting for it.
+     */
+    void close() {
+        flushTicks();
+        mFull.add(mBuffer);
+        mBuffer = null;
+        // an empty buffer tells the writer to stop
+        mFull.add(ByteBuffer.allocate(0));
+    }
+
+    /**
+     * @return the first error the writer ran into so far, null if none.
+     */
+    IOException getError() {
+        return mError;
+    }
+
+    /**
+     * Wait until the file is complete, after close() or end(). Only for tools reading the log right away.
+     *
+     * @throws IOException if the log could not be written.
+     */
+    void await() throws IOException {
+        joinUninterruptibly(mWriter);
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushTicks() {
+        while (mPendingTicks > 0) {
+            int count = Math.min(mPendingTicks, Short.MAX_VALUE);
+            mPendingTicks -= count;
+            ByteBuffer b = ensure();
+            b.put(OP_TICKS);
+            b.putShort((short) count);
+        }
+    }
+
+    /**
+     * @return the current buffer with room for one record, after writing out pending ticks.
+     */
+    private ByteBuffer room() {
+        flushTicks();
+        return ensure();
+    }
+
+    private ByteBuffer ensure() {
+        if (mBuffer.remaining() < MAX_RECORD) {
+            mFull.add(mBuffer);
+            mBuffer = take();
+        }
+        return mBuffer;
+    }
+
+    private ByteBuffer take() {
+        // only waits if the writer is BUFFER_COUNT buffers behind
+        while (true) {
+            try {
+                ByteBuffer b = mFree.take();
+                b.clear();
+                return b;
+            } catch (InterruptedException e) {
+                // keep recording, the log must not have holes
+            }
+        }
+    }
+
+    private void writeLoop() {
+        if (mPrevious != null) {
+            joinUninterruptibly(mPrevious.mWriter);
+            mPrevious = null;
+        }
+        FileChannel channel = null;
+        try {
+            channel = new FileOutputStream(mFile).getChannel();
+        } catch (IOException e) {
+            // buffers still go round so that recording never blocks
+            mError = e;
+        }
+        while (true) {
+            ByteBuffer b;
+            try {
+                b = mFull.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (b.capacity() == 0) {
+                break;
+            }
+            b.flip();
+            try {
+                while (channel != null && b.hasRemaining()) {
+                    channel.write(b);
+                }
+            } catch (IOException e) {
+                if (mError == null) {
+                    mError = e;
+                }
+            }
+            mFree.add(b);
+        }
+        // a finished recorder may be kept around for its error, not its buffers
+        mFree.clear();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (mError == null) {
+                    mError = e;
+                }
+            }
+        }
+    }
+
+}
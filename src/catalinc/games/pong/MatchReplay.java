@@ -0,0 +1,146 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Re-executes a log written by MatchRecorder without rendering and checks the final state.
+ */
+class MatchReplay {
+
+    private final ByteBuffer mLog;
+
+    private PongEngine mEngine;
+    private long       mTicks;
+    private boolean    mEnded;
+    private boolean    mMatched;
+
+    MatchReplay(ByteBuffer log) {
+        mLog = log;
+    }
+
+    static MatchReplay open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MatchReplay(log);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replay the whole log.
+     *
+     * @return true if the log has an end record and the final scores and ball state are bit for bit identical.
+     */
+    boolean run() throws IOException {
+        ByteBuffer b = mLog;
+        if (b.getInt() != MatchRecorder.MAGIC) {
+            throw new IOException("Not a match log");
+        }
+        int version = b.getShort();
+        if (version != MatchRecorder.VERSION) {
+            throw new IOException("Unsupported match log version " + version);
+        }
+        long seed = b.getLong();
+        int width = b.getInt();
+        int height = b.getInt();
+        int paddleWidth = b.getShort();
+        int paddleHeight = b.getShort();
+        int ballRadius = b.getShort();
+        int difficulty = b.get();
+        int flags = b.get();
+
+        mEngine = new PongEngine(paddleWidth, paddleHeight, ballRadius, seed);
+        mEngine.setDifficulty(difficulty);
+        mEngine.setFixedPoint((flags & MatchRecorder.FLAG_FIXED_POINT) != 0);
+        mEngine.setSize(width, height);
+        mEngine.mHumanPlayer.score = b.getInt();
+        mEngine.mComputerPlayer.score = b.getInt();
+        if ((flags & MatchRecorder.FLAG_LEVEL) != 0) {
+            Level level = new Level();
+            int count = b.getShort() & 0xffff;
+            for (int i = 0; i < count; i++) {
+                level.add(b.get(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat());
+            }
+            mEngine.setLevel(level);
+        }
+
+        while (b.hasRemaining()) {
+            byte op = b.get();
+            switch (op) {
+                case MatchRecorder.OP_TICKS:
+                    int count = b.getShort();
+                    for (int i = 0; i < count; i++) {
+                        tick();
+                    }
+                    break;
+                case MatchRecorder.OP_MOVE:
+                    mEngine.moveHumanPaddle(b.getFloat());
+                    break;
+                // not recorded any more, kept for logs from before the fixed world size
+                case MatchRecorder.OP_SIZE:
+                    mEngine.setSize(b.getInt(), b.getInt());
+                    break;
+                case MatchRecorder.OP_READY:
+                    mEngine.setupNewRound();
+                    break;
+                case MatchRecorder.OP_END:
+                    mEnded = true;
+                    mMatched = verify(b);
+                    return mMatched;
+                default:
+                    throw new IOException("Corrupt match log, unknown op " + op);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same outcome handling as PongThread.setState(STATE_WIN / STATE_LOSE).
+     */
+    private void tick() {
+        mTicks++;
+        switch (mEngine.tick()) {
+            case PongEngine.TICK_WIN:
+                mEngine.humanScores();
+                break;
+            case PongEngine.TICK_LOSE:
+                mEngine.computerScores();
+                break;
+        }
+    }
+
+    private boolean verify(ByteBuffer b) {
+        Ball ball = mEngine.mBall;
+        boolean matched = b.getInt() == mEngine.mHumanPlayer.score;
+        matched &= b.getInt() == mEngine.mComputerPlayer.score;
+        matched &= b.getInt() == Float.floatToRawIntBits(ball.cx);
+        matched &= b.getInt() == Float.floatToRawIntBits(ball.cy);
+        matched &= b.getInt() == Float.floatToRawIntBits(ball.dx);
+        matched &= b.getInt() == Float.floatToRawIntBits(ball.dy);
+        return matched;
+    }
+
+    PongEngine getEngine() {
+        return mEngine;
+    }
+
+    long getTicks() {
+        return mTicks;
+    }
+
+    /**
+     * @return false if the log was cut before its end record, e.g. the game was killed.
+     */
+    boolean isEnded() {
+        return mEnded;
+    }
+
+}
@@ -0,0 +1,309 @@
+package catalinc.games.pong;
+
+import java.util.Arrays;
+
+/**
+ * Chaos mode: many balls at once, bouncing off the walls, the paddles and each other.
+ * <p/>
+ * Balls are kept as a structure of arrays. Each tick they move, bounce off walls and paddles in one pass over the
+ * arrays, then a uniform grid is rebuilt with a counting sort and ball pairs are only tested within neighbouring
+ * cells. Nothing is allocated per tick, the grid is only reallocated when the arena size changes.
+ */
+class MultiBallArena {
+
+    final float[] x;
+    final float[] y;
+    final float[] vx;
+    final float[] vy;
+    final float[] prevX;
+    final float[] prevY;
+    final int     radius;
+    int           count;
+
+    /**
+     * Points scored during the last tick.
+     */
+    int humanPoints;
+    int computerPoints;
+
+    private final PongEngine     mEngine;
+    private final StatefulRandom mRandom;
+
+    private int   mWidth;
+    private int   mHeight;
+    private float mCellSize;
+    private int   mCols;
+    private int   mRows;
+    /**
+     * Index in mCellBalls of the first ball of each cell, one extra entry marks the end of the last cell.
+     */
+    private int[] mCellStart;
+    private final int[] mCellBalls;
+    private final int[] mBallCell;
+
+    MultiBallArena(PongEngine engine, int capacity, int radius, long seed) {
+        mEngine = engine;
+        mRandom = new StatefulRandom(seed);
+        this.radius = radius;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        mCellBalls = new int[capacity];
+        mBallCell = new int[capacity];
+        mCellStart = new int[1];
+    }
+
+    /**
+     * Serve the given number of balls from random places around the median line.
+     */
+    void reset(int balls) {
+        count = Math.min(balls, x.length);
+        for (int i = 0; i < count; i++) {
+            serve(i);
+        }
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
+    }
+
+    void tick() {
+        final int width = mEngine.getWidth();
+        final int height = mEngine.getHeight();
+        if (width != mWidth || height != mHeight) {
+            resizeGrid(width, height);
+        }
+
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
+        humanPoints = 0;
+        computerPoints = 0;
+
+        final Player human = mEngine.mHumanPlayer;
+        final Player computer = mEngine.mComputerPlayer;
+        if (human.collision > 0) {
+            human.collision--;
+        }
+        if (computer.collision > 0) {
+            computer.collision--;
+        }
+
+        trackNearestBall(computer);
+        move(width, height);
+        bounceOffPaddle(human, 1);
+        bounceOffPaddle(computer, -1);
+        rebuildGrid();
+        collideBalls();
+    }
+
+    /**
+     * Move all balls, reflect them off the top and bottom walls and serve again the ones that left the arena.
+     */
+    private void move(int width, int height) {
+        final float r = radius;
+        final float top = r;
+        final float bottom = height - 1 - r;
+        for (int i = 0; i < count; i++) {
+            float px = x[i] + vx[i];
+            float py = y[i] + vy[i];
+            if (py < top) {
+                py = 2 * top - py;
+                vy[i] = -vy[i];
+            } else if (py > bottom) {
+                py = 2 * bottom - py;
+                vy[i] = -vy[i];
+            }
+            x[i] = px;
+            y[i] = py;
+            if (px <= r) {
+                computerPoints++;
+                serve(i);
+            } else if (px + r >= width - 1) {
+                humanPoints++;
+                serve(i);
+            }
+        }
+    }
+
+    /**
+     * Same bounce as a single ball: the angle depends on where the ball hits the paddle.
+     *
+     * @param direction horizontal direction the ball leaves the paddle in.
+     */
+    private void bounceOffPaddle(Player player, float direction) {
+        final float r = radius;
+        final float left = player.left - r;
+        final float right = player.right() + r;
+        final float top = player.top - r;
+        final float bottom = player.bottom() + r;
+        final float halfHeight = player.paddleHeight / 2;
+        final float center = player.top + halfHeight;
+        final float speed = PongEngine.PHYS_BALL_SPEED;
+        for (int i = 0; i < count; i++) {
+            final float px = x[i];
+            final float py = y[i];
+            if (px < left || px > right || py < top || py > bottom || vx[i] * direction > 0) {
+                continue;
+            }
+            float normalized = (center - py) / halfHeight;
+            if (normalized > 1) {
+                normalized = 1;
+            } else if (normalized < -1) {
+                normalized = -1;
+            }
+            double bounceAngle = normalized * PongEngine.PHYS_MAX_BOUNCE_ANGLE;
+            vx[i] = (float) (direction * speed * Math.cos(bounceAngle));
+            vy[i] = (float) (speed * -Math.sin(bounceAngle));
+            x[i] = direction > 0 ? right : left;
+            player.collision = PongEngine.PHYS_COLLISION_FRAMES;
+        }
+    }
+
+    /**
+     * Elastic collisions between equal balls, only tested against balls in the same or a neighbouring cell.
+     */
+    private void collideBalls() {
+        final float diameter = 2 * radius;
+        final float diameter2 = diameter * diameter;
+        final int cols = mCols;
+        final int rows = mRows;
+        for (int i = 0; i < count; i++) {
+            final int cell = mBallCell[i];
+            final int col = cell % cols;
+            final int row = cell / cols;
+            final int rowFrom = Math.max(row - 1, 0);
+            final int rowTo = Math.min(row + 1, rows - 1);
+            final int colFrom = Math.max(col - 1, 0);
+            final int colTo = Math.min(col + 1, cols - 1);
+            for (int r = rowFrom; r <= rowTo; r++) {
+                for (int c = colFrom; c <= colTo; c++) {
+                    final int neighbour = r * cols + c;
+                    for (int k = mCellStart[neighbour], end = mCellStart[neighbour + 1]; k < end; k++) {
+                        final int j = mCellBalls[k];
+                        // each pair once
+                        if (j <= i) {
+                            continue;
+                        }
+                        final float dx = x[j] - x[i];
+                        final float dy = y[j] - y[i];
+                        final float d2 = dx * dx + dy * dy;
+                        if (d2 >= diameter2 || d2 == 0) {
+                            continue;
+                        }
+                        final float d = (float) Math.sqrt(d2);
+                        final float nx = dx / d;
+                        final float ny = dy / d;
+                        // closing speed along the normal, swap it between the two balls
+                        final float closing = (vx[i] - vx[j]) * nx + (vy[i] - vy[j]) * ny;
+                        if (closing > 0) {
+                            vx[i] -= closing * nx;
+                            vy[i] -= closing * ny;
+                            vx[j] += closing * nx;
+                            vy[j] += closing * ny;
+                        }
+                        // push apart so they do not stick together
+                        final float push = (diameter - d) / 2;
+                        x[i] -= push * nx;
+                        y[i] -= push * ny;
+                        x[j] += push * nx;
+                        y[j] += push * ny;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counting sort of the balls by grid cell.
+     */
+    private void rebuildGrid() {
+        final int[] start = mCellStart;
+        final int cells = mCols * mRows;
+        Arrays.fill(start, 0);
+        final float inv = 1 / mCellSize;
+        for (int i = 0; i < count; i++) {
+            int col = (int) (x[i] * inv);
+            int row = (int) (y[i] * inv);
+            col = col < 0 ? 0 : (col >= mCols ? mCols - 1 : col);
+            row = row < 0 ? 0 : (row >= mRows ? mRows - 1 : row);
+            final int cell = row * mCols + col;
+            mBallCell[i] = cell;
+            start[cell + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            start[c + 1] += start[c];
+        }
+        // fill each cell from its end, leaving start[] pointing at the first ball again
+        for (int i = count - 1; i >= 0; i--) {
+            mCellBalls[--start[mBallCell[i] + 1]] = i;
+        }
+        // start[c + 1] now holds the start of cell c, shift back by one
+        System.arraycopy(start, 1, start, 0, cells);
+        start[cells] = count;
+    }
+
+    private void resizeGrid(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mCellSize = 2 * radius;
+        mCols = Math.max(1, (int) Math.ceil(width / mCellSize));
+        mRows = Math.max(1, (int) Math.ceil(height / mCellSize));
+        mCellStart = new int[mCols * mRows + 1];
+    }
+
+    /**
+     * Move the paddle towards the ball closest to it among those coming its way.
+     */
+    private void trackNearestBall(Player player) {
+        int nearest = -1;
+        float nearestX = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (vx[i] > 0 && x[i] > nearestX && x[i] < player.left) {
+                nearestX = x[i];
+                nearest = i;
+            }
+        }
+        if (nearest < 0) {
+            return;
+        }
+        final float target = y[nearest] - player.paddleHeight / 2;
+        final float speed = PongEngine.PHYS_PADDLE_SPEED;
+        final float distance = target - player.top;
+        if (distance > speed) {
+            mEngine.movePlayer(player, player.left, player.top + speed);
+        } else if (distance < -speed) {
+            mEngine.movePlayer(player, player.left, player.top - speed);
+        } else {
+            mEngine.movePlayer(player, player.left, target);
+        }
+    }
+
+    private void serve(int i) {
+        final int width = mEngine.getWidth();
+        final int height = mEngine.getHeight();
+        x[i] = width / 2;
+        y[i] = radius + mRandom.nextFloat() * (height - 1 - 2 * radius);
+        // up to 45 degrees off the horizontal, towards a random side
+        double angle = (mRandom.nextFloat() - 0.5f) * Math.PI / 2;
+        float direction = mRandom.nextBoolean() ? 1 : -1;
+        vx[i] = (float) (direction * PongEngine.PHYS_BALL_SPEED * Math.cos(angle));
+        vy[i] = (float) (PongEngine.PHYS_BALL_SPEED * Math.sin(angle));
+        prevX[i] = x[i];
+        prevY[i] = y[i];
+    }
+
+    /**
+     * Write interpolated ball centers as x, y pairs, ready for Canvas.drawPoints().
+     *
+     * @return number of floats written.
+     */
+    int fillPoints(float[] points, float alpha) {
+        for (int i = 0, p = 0; i < count; i++) {
+            points[p++] = prevX[i] + (x[i] - prevX[i]) * alpha;
+            points[p++] = prevY[i] + (y[i] - prevY[i]) * alpha;
+        }
+        return 2 * count;
+    }
+
+}
@@ -0,0 +1,296 @@
+package catalinc.games.pong;
+
+import java.util.Arrays;
+
+/**
+ * The obstacles of a level laid out on an arena, with a uniform grid for collision queries.
+ * <p/>
+ * Built once per level and arena size, the geometry never changes afterwards so the renderer may keep a reference
+ * to it. Every cell lists the obstacles whose bounds grown by the ball radius overlap it, stored as one array of
+ * obstacle indices with a start offset per cell. A sweep only tests the obstacles in the cells the ball center
+ * crosses, so its cost depends on how crowded the neighborhood of the ball is rather than on the obstacle count.
+ */
+class ObstacleGrid {
+
+    /**
+     * Upper bound of cells along each axis.
+     */
+    private static final int MAX_CELLS = 256;
+
+    final int width;
+    final int height;
+    final int count;
+
+    /**
+     * Level.KIND_* of each obstacle.
+     */
+    final byte[]  kind;
+    /**
+     * Geometry in world units, Level.PARAMS values per obstacle: brick left, top, right, bottom; bumper x, y, radius;
+     * deflector x1, y1, x2, y2, half thickness.
+     */
+    final float[] shape;
+
+    /**
+     * Time, normal and index of the obstacle hit, valid after a successful sweep.
+     */
+    float time;
+    float nx;
+    float ny;
+    int   obstacle;
+
+    private final float mBallRadius;
+
+    /**
+     * Bounds of each obstacle grown by the ball radius.
+     */
+    private final float[] mLeft;
+    private final float[] mTop;
+    private final float[] mRight;
+    private final float[] mBottom;
+
+    private final float mCellSize;
+    private final int   mColumns;
+    private final int   mRows;
+    /**
+     * Obstacles of cell i are mCellObstacles[mCellStart[i]] up to mCellObstacles[mCellStart[i + 1]].
+     */
+    private final int[] mCellStart;
+    private final int[] mCellObstacles;
+
+    /**
+     * An obstacle spanning several cells is tested once per sweep, it is stamped with the sweep number.
+     */
+    private final int[] mStamp;
+    private       int   mSweep;
+
+    private final SweptCollision mCollision = new SweptCollision();
+
+    ObstacleGrid(Level level, int width, int height, int ballRadius) {
+        this.width = width;
+        this.height = height;
+        count = level.count();
+        kind = new byte[count];
+        shape = new float[count * Level.PARAMS];
+        mBallRadius = ballRadius;
+        mLeft = new float[count];
+        mTop = new float[count];
+        mRight = new float[count];
+        mBottom = new float[count];
+        mStamp = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            layout(level, i);
+        }
+
+        // about one obstacle per cell, but not much smaller than the ball
+        float cellSize = (float) Math.sqrt((double) width * height / Math.max(count, 1));
+        cellSize = Math.max(cellSize, ballRadius / 2f);
+        cellSize = Math.max(cellSize, Math.max(width, height) / (float) MAX_CELLS);
+        mCellSize = Math.max(cellSize, 1);
+        mColumns = Math.max(1, (int) Math.ceil(width / mCellSize));
+        mRows = Math.max(1, (int) Math.ceil(height / mCellSize));
+
+        // counting pass, then fill each cell from its start offset
+        final int cells = mColumns * mRows;
+        mCellStart = new int[cells + 1];
+        for (int i = 0; i < count; i++) {
+            for (int row = row(mTop[i]); row <= row(mBottom[i]); row++) {
+                for (int column = column(mLeft[i]); column <= column(mRight[i]); column++) {
+                    mCellStart[row * mColumns + column + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < cells; c++) {
+            mCellStart[c + 1] += mCellStart[c];
+        }
+        mCellObstacles = new int[mCellStart[cells]];
+        final int[] next = new int[cells];
+        System.arraycopy(mCellStart, 0, next, 0, cells);
+        for (int i = 0; i < count; i++) {
+            for (int row = row(mTop[i]); row <= row(mBottom[i]); row++) {
+                for (int column = column(mLeft[i]); column <= column(mRight[i]); column++) {
+                    mCellObstacles[next[row * mColumns + column]++] = i;
+                }
+            }
+        }
+    }
+
+    private void layout(Level level, int i) {
+        final int p = i * Level.PARAMS;
+        final float r = mBallRadius;
+        kind[i] = (byte) level.kind(i);
+        switch (kind[i]) {
+            case Level.KIND_BRICK:
+                shape[p] = level.param(i, 0) * width;
+                shape[p + 1] = level.param(i, 1) * height;
+                shape[p + 2] = shape[p] + level.param(i, 2) * width;
+                shape[p + 3] = shape[p + 1] + level.param(i, 3) * height;
+                mLeft[i] = shape[p] - r;
+                mTop[i] = shape[p + 1] - r;
+                mRight[i] = shape[p + 2] + r;
+                mBottom[i] = shape[p + 3] + r;
+                break;
+            case Level.KIND_BUMPER: {
+                shape[p] = level.param(i, 0) * width;
+                shape[p + 1] = level.param(i, 1) * height;
+                shape[p + 2] = level.param(i, 2) * height;
+                final float grown = shape[p + 2] + r;
+                mLeft[i] = shape[p] - grown;
+                mTop[i] = shape[p + 1] - grown;
+                mRight[i] = shape[p] + grown;
+                mBottom[i] = shape[p + 1] + grown;
+                break;
+            }
+            case Level.KIND_DEFLECTOR: {
+                shape[p] = level.param(i, 0) * width;
+                shape[p + 1] = level.param(i, 1) * height;
+                shape[p + 2] = level.param(i, 2) * width;
+                shape[p + 3] = level.param(i, 3) * height;
+                shape[p + 4] = level.param(i, 4) * height / 2;
+                final float grown = shape[p + 4] + r;
+                mLeft[i] = Math.min(shape[p], shape[p + 2]) - grown;
+                mTop[i] = Math.min(shape[p + 1], shape[p + 3]) - grown;
+                mRight[i] = Math.max(shape[p], shape[p + 2]) + grown;
+                mBottom[i] = Math.max(shape[p + 1], shape[p + 3]) + grown;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown obstacle kind " + kind[i]);
+        }
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(mColumns - 1, (int) (x / mCellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(mRows - 1, (int) (y / mCellSize)));
+    }
+
+    /**
+     * Sweep the ball along its velocity for maxTime and look for the first obstacle it touches.
+     *
+     * @return true if an obstacle was hit, time, nx, ny and obstacle are then set.
+     */
+    boolean sweep(Ball ball, float maxTime) {
+        if (count == 0) {
+            return false;
+        }
+        final float cx = ball.cx;
+        final float cy = ball.cy;
+        final float ex = cx + ball.dx * maxTime;
+        final float ey = cy + ball.dy * maxTime;
+        final float minX = Math.min(cx, ex);
+        final float minY = Math.min(cy, ey);
+        final float maxX = Math.max(cx, ex);
+        final float maxY = Math.max(cy, ey);
+        if (++mSweep == 0) {
+            // the stamps wrapped around, forget them
+            Arrays.fill(mStamp, 0);
+            mSweep = 1;
+        }
+        final int sweep = mSweep;
+        final int[] stamp = mStamp;
+        final int[] cellObstacles = mCellObstacles;
+        final int[] cellStart = mCellStart;
+        boolean hit = false;
+        float best = maxTime;
+        final int lastRow = row(maxY);
+        final int firstColumn = column(minX);
+        final int lastColumn = column(maxX);
+        for (int row = row(minY); row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int cell = row * mColumns + column;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    final int i = cellObstacles[k];
+                    if (stamp[i] == sweep) {
+                        continue;
+                    }
+                    stamp[i] = sweep;
+                    if (test(i, ball, minX, minY, maxX, maxY, best) && closer(i, hit, best)) {
+                        best = time;
+                        hit = true;
+                    }
+                }
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * Same result as sweep(), testing every obstacle. Kept to check and benchmark the grid.
+     */
+    boolean sweepAll(Ball ball, float maxTime) {
+        final float cx = ball.cx;
+        final float cy = ball.cy;
+        final float ex = cx + ball.dx * maxTime;
+        final float ey = cy + ball.dy * maxTime;
+        final float minX = Math.min(cx, ex);
+        final float minY = Math.min(cy, ey);
+        final float maxX = Math.max(cx, ex);
+        final float maxY = Math.max(cy, ey);
+        boolean hit = false;
+        float best = maxTime;
+        for (int i = 0; i < count; i++) {
+            if (test(i, ball, minX, minY, maxX, maxY, best) && closer(i, hit, best)) {
+                best = time;
+                hit = true;
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * Exact test of one obstacle, if the swept box of the ball center overlaps its grown bounds.
+     *
+     * @return true if the obstacle is touched not later than maxTime, mCollision then has the details.
+     */
+    private boolean test(int i, Ball ball, float minX, float minY, float maxX, float maxY, float maxTime) {
+        if (maxX < mLeft[i] || minX > mRight[i] || maxY < mTop[i] || minY > mBottom[i]) {
+            return false;
+        }
+        final SweptCollision collision = mCollision;
+        final float[] s = shape;
+        final int p = i * Level.PARAMS;
+        final float r = mBallRadius;
+        switch (kind[i]) {
+            case Level.KIND_BRICK:
+                return !inside(ball, s[p], s[p + 1], s[p + 2], s[p + 3])
+                       && collision.ballVsBox(ball.cx, ball.cy, ball.dx, ball.dy, r,
+                                              s[p], s[p + 1], s[p + 2], s[p + 3], maxTime);
+            case Level.KIND_BUMPER:
+                return collision.ballVsCircle(ball.cx, ball.cy, ball.dx, ball.dy, r,
+                                              s[p], s[p + 1], s[p + 2], maxTime);
+            default:
+                return collision.ballVsCapsule(ball.cx, ball.cy, ball.dx, ball.dy, r,
+                                               s[p], s[p + 1], s[p + 2], s[p + 3], s[p + 4], maxTime);
+        }
+    }
+
+    /**
+     * Keep the hit just found by test() if it is the first one or earlier than the best so far. Ties go to the
+     * lower obstacle index, so the order in which obstacles are tested does not matter.
+     */
+    private boolean closer(int i, boolean hit, float best) {
+        final SweptCollision collision = mCollision;
+        if (hit && (collision.time > best || collision.time == best && obstacle < i)) {
+            return false;
+        }
+        time = collision.time;
+        nx = collision.nx;
+        ny = collision.ny;
+        obstacle = i;
+        return true;
+    }
+
+    /**
+     * A ball overlapping a brick, e.g. served on it, is let go.
+     */
+    private boolean inside(Ball ball, float left, float top, float right, float bottom) {
+        final float qx = ball.cx < left ? left - ball.cx : (ball.cx > right ? ball.cx - right : 0);
+        final float qy = ball.cy < top ? top - ball.cy : (ball.cy > bottom ? ball.cy - bottom : 0);
+        return qx * qx + qy * qy < mBallRadius * mBallRadius;
+    }
+
+}
@@ -0,0 +1,266 @@
+package catalinc.games.pong;
+
+/**
+ * Sparks on hits and the trail behind the ball, in a fixed budget of particles.
+ * <p/>
+ * Particles are kept as a structure of arrays used as a ring in emission order. When the ring is full a new particle
+ * takes the place of the oldest one, so effects thin out instead of failing. Nothing is allocated after
+ * construction. Particles fade in a few steps, for drawing they are sorted by kind and fade level with a counting
+ * sort so that every group is drawn in a single points call.
+ */
+class ParticleSystem {
+
+    static final int KIND_TRAIL  = 0;
+    static final int KIND_SPARK  = 1;
+    static final int KIND_COUNT  = 2;
+    static final int FADE_LEVELS = 4;
+
+    /**
+     * Number of draw groups, the group of a particle is kind * FADE_LEVELS + fade level, 0 is the faintest.
+     */
+    static final int GROUPS = KIND_COUNT * FADE_LEVELS;
+
+    /**
+     * Sparks slow down by this factor every tick.
+     */
+    private static final float SPARK_DRAG      = 0.9f;
+    private static final float SPARK_SPREAD    = (float) (Math.PI / 3);
+    private static final float SPARK_MIN_SPEED = 2;
+    private static final float SPARK_MAX_SPEED = 7;
+    private static final int   SPARK_MIN_LIFE  = 10;
+    private static final int   SPARK_MAX_LIFE  = 25;
+
+    final int capacity;
+
+    final float[] x;
+    final float[] y;
+    final float[] vx;
+    final float[] vy;
+    final float[] prevX;
+    final float[] prevY;
+    /**
+     * Ticks left to live, 0 for a dead particle.
+     */
+    final int[]   life;
+    final byte[]  kind;
+    /**
+     * FADE_LEVELS divided by the lifetime, so the fade level is a multiplication away.
+     */
+    final float[] fade;
+
+    /**
+     * Bounds of the live particles and where they were on the previous tick, left > right if there are none.
+     */
+    float left;
+    float top;
+    float right;
+    float bottom;
+
+    /**
+     * Start of each draw group in the array filled by fill(), one extra entry marks the end of the last group.
+     * Offsets and counts are in floats, two per particle.
+     */
+    final int[] groupStart;
+
+    private final StatefulRandom mRandom;
+
+    /**
+     * The live particles are the ring slots from mOldest, mCount of them.
+     */
+    private int mOldest;
+    private int mCount;
+
+    /**
+     * Bounds of the current positions only.
+     */
+    private float mLeft;
+    private float mTop;
+    private float mRight;
+    private float mBottom;
+
+    private final int[]  mGroupNext;
+    private final byte[] mGroup;
+
+    ParticleSystem(int capacity, long seed) {
+        this.capacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        life = new int[capacity];
+        kind = new byte[capacity];
+        fade = new float[capacity];
+        mGroup = new byte[capacity];
+        groupStart = new int[GROUPS + 1];
+        mGroupNext = new int[GROUPS];
+        mRandom = new StatefulRandom(seed);
+        clearBounds();
+    }
+
+    /**
+     * @return number of ring slots in use, dead particles between live ones included.
+     */
+    int count() {
+        return mCount;
+    }
+
+    void clear() {
+        for (int i = 0; i < mCount; i++) {
+            life[(mOldest + i) % capacity] = 0;
+        }
+        mOldest = 0;
+        mCount = 0;
+        clearBounds();
+    }
+
+    /**
+     * Add one trail particle standing at the given place.
+     */
+    void trail(float px, float py, int ticks) {
+        add(KIND_TRAIL, px, py, 0, 0, ticks);
+    }
+
+    /**
+     * Add sparks flying away from a hit, in a cone around the normal of the hit surface.
+     */
+    void sparks(float px, float py, float normalX, float normalY, int count) {
+        final float normal = (float) Math.atan2(normalY, normalX);
+        for (int i = 0; i < count; i++) {
+            final float angle = normal + (mRandom.nextFloat() - 0.5f) * 2 * SPARK_SPREAD;
+            final float speed = SPARK_MIN_SPEED + mRandom.nextFloat() * (SPARK_MAX_SPEED - SPARK_MIN_SPEED);
+            final int ticks = SPARK_MIN_LIFE + mRandom.nextInt(SPARK_MAX_LIFE - SPARK_MIN_LIFE + 1);
+            add(KIND_SPARK, px, py, speed * (float) Math.cos(angle), speed * (float) Math.sin(angle), ticks);
+        }
+    }
+
+    private void add(int particleKind, float px, float py, float pvx, float pvy, int ticks) {
+        final int i;
+        if (mCount == capacity) {
+            // recycle the oldest particle
+            i = mOldest;
+            mOldest = (mOldest + 1) % capacity;
+        } else {
+            i = (mOldest + mCount) % capacity;
+            mCount++;
+        }
+        kind[i] = (byte) particleKind;
+        x[i] = px;
+        y[i] = py;
+        prevX[i] = px;
+        prevY[i] = py;
+        vx[i] = pvx;
+        vy[i] = pvy;
+        life[i] = ticks;
+        fade[i] = FADE_LEVELS / (float) ticks;
+        mLeft = Math.min(mLeft, px);
+        mTop = Math.min(mTop, py);
+        mRight = Math.max(mRight, px);
+        mBottom = Math.max(mBottom, py);
+        left = Math.min(left, px);
+        top = Math.min(top, py);
+        right = Math.max(right, px);
+        bottom = Math.max(bottom, py);
+    }
+
+    /**
+     * Move and age all particles by one physics tick.
+     */
+    void tick() {
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        int i = mOldest;
+        for (int n = 0; n < mCount; n++) {
+            if (life[i] > 0) {
+                prevX[i] = x[i];
+                prevY[i] = y[i];
+                x[i] += vx[i];
+                y[i] += vy[i];
+                vx[i] *= SPARK_DRAG;
+                vy[i] *= SPARK_DRAG;
+                life[i]--;
+                final float px = x[i];
+                final float py = y[i];
+                minX = px < minX ? px : minX;
+                maxX = px > maxX ? px : maxX;
+                minY = py < minY ? py : minY;
+                maxY = py > maxY ? py : maxY;
+            }
+            if (++i == capacity) {
+                i = 0;
+            }
+        }
+        // drop dead particles from the old end, later ones go when they get there
+        while (mCount > 0 && life[mOldest] == 0) {
+            mOldest = mOldest == capacity - 1 ? 0 : mOldest + 1;
+            mCount--;
+        }
+        // previous positions are within the previous bounds
+        left = Math.min(mLeft, minX);
+        top = Math.min(mTop, minY);
+        right = Math.max(mRight, maxX);
+        bottom = Math.max(mBottom, maxY);
+        mLeft = minX;
+        mTop = minY;
+        mRight = maxX;
+        mBottom = maxY;
+    }
+
+    /**
+     * Write the interpolated positions of the live particles as x, y pairs, sorted by draw group.
+     *
+     * @param points room for 2 * capacity floats.
+     * @param alpha  position between the previous (0) and current (1) physics tick.
+     * @return number of floats written, groupStart tells where each group is.
+     */
+    int fill(float[] points, float alpha) {
+        final int[] start = groupStart;
+        for (int g = 0; g <= GROUPS; g++) {
+            start[g] = 0;
+        }
+        int i = mOldest;
+        for (int n = 0; n < mCount; n++) {
+            if (life[i] > 0) {
+                final int g = kind[i] * FADE_LEVELS + (int) ((life[i] - 1) * fade[i]);
+                mGroup[i] = (byte) g;
+                start[g + 1] += 2;
+            }
+            if (++i == capacity) {
+                i = 0;
+            }
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            start[g + 1] += start[g];
+            mGroupNext[g] = start[g];
+        }
+        i = mOldest;
+        for (int n = 0; n < mCount; n++) {
+            if (life[i] > 0) {
+                final int g = mGroup[i];
+                final int p = mGroupNext[g];
+                mGroupNext[g] = p + 2;
+                points[p] = prevX[i] + (x[i] - prevX[i]) * alpha;
+                points[p + 1] = prevY[i] + (y[i] - prevY[i]) * alpha;
+            }
+            if (++i == capacity) {
+                i = 0;
+            }
+        }
+        return start[GROUPS];
+    }
+
+    private void clearBounds() {
+        mLeft = Float.MAX_VALUE;
+        mTop = Float.MAX_VALUE;
+        mRight = -Float.MAX_VALUE;
+        mBottom = -Float.MAX_VALUE;
+        left = Float.MAX_VALUE;
+        top = Float.MAX_VALUE;
+        right = -Float.MAX_VALUE;
+        bottom = -Float.MAX_VALUE;
+    }
+
+}
@@ -1,24 +1,53 @@
 package catalinc.games.pong;
 
-import android.graphics.Paint;
-import android.graphics.RectF;
-
 class Player {
 
     int paddleWidth;
     int paddleHeight;
-    Paint paint;
     int score;
-    RectF bounds;
+    float left;
+    float top;
+    float prevLeft;
+    float prevTop;
     int collision;
 
-    Player(int paddleWidth, int paddleHeight, Paint paint) {
+    Player(int paddleWidth, int paddleHeight) {
         this.paddleWidth = paddleWidth;
         this.paddleHeight = paddleHeight;
-        this.paint = paint;
         this.score = 0;
-        this.bounds = new RectF(0, 0, paddleWidth, paddleHeight);
+        this.left = 0;
+        this.top = 0;
         this.collision = 0;
     }
 
+    float right() {
+        return left + paddleWidth;
+    }
+
+    float bottom() {
+        return top + paddleHeight;
+    }
+
+    /**
+     * @return paddle left interpolated between previous and current tick.
+     */
+    float lerpLeft(float alpha) {
+        return prevLeft + (left - prevLeft) * alpha;
+    }
+
+    /**
+     * @return paddle top interpolated between previous and current tick.
+     */
+    float lerpTop(float alpha) {
+        return prevTop + (top - prevTop) * alpha;
+    }
+
+    boolean contains(float x, float y) {
+        return x >= left && x < right() && y >= top && y < bottom();
+    }
+
+    boolean intersects(float l, float t, float r, float b) {
+        return left < r && l < right() && top < b && t < bottom();
+    }
+
 }
@@ -6,6 +6,8 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TextView;
 
+import java.io.File;
+
 /**
  * Main activity of Pong game.
  */
@@ -14,6 +16,22 @@ public class Pong extends Activity {
     private static final int MENU_NEW_GAME = 1;
     private static final int MENU_RESUME = 2;
     private static final int MENU_EXIT = 3;
+    private static final int MENU_FRAME_STATS = 4;
+
+    /**
+     * The last match is always recorded, to reproduce bugs.
+     */
+    private static final String MATCH_LOG = "last_match.log";
+
+    /**
+     * Gameplay analytics, rotated by size.
+     */
+    private static final String TELEMETRY_LOG = "telemetry.bin";
+
+    /**
+     * The game is saved here when the activity pauses, and resumed from here if the process was killed.
+     */
+    private static final String AUTOSAVE = "autosave.bin";
 
     private PongThread mGameThread;
 
@@ -28,8 +46,12 @@ public class Pong extends Activity {
         mPongView.setScoreView((TextView) findViewById(R.id.score));
 
         mGameThread = mPongView.getGameThread();
+        mGameThread.setRecordingFile(new File(getFilesDir(), MATCH_LOG));
+        mGameThread.setTelemetryFile(new File(getFilesDir(), TELEMETRY_LOG));
         if (savedInstanceState == null) {
-            mGameThread.setState(PongThread.STATE_READY);
+            if (!mGameThread.restoreSnapshot(new File(getFilesDir(), AUTOSAVE))) {
+                mGameThread.setState(PongThread.STATE_READY);
+            }
         } else {
             mGameThread.restoreState(savedInstanceState);
         }
@@ -39,6 +61,13 @@ public class Pong extends Activity {
     protected void onPause() {
         super.onPause();
         mGameThread.pause();
+        File autosave = new File(getFilesDir(), AUTOSAVE);
+        if (isFinishing()) {
+            // the player left the game on purpose
+            autosave.delete();
+        } else {
+            mGameThread.saveSnapshot(autosave);
+        }
     }
 
     @Override
@@ -53,6 +82,7 @@ public class Pong extends Activity {
 
         menu.add(0, MENU_NEW_GAME, 0, R.string.menu_new_game);
         menu.add(0, MENU_RESUME, 0, R.string.menu_resume);
+        menu.add(0, MENU_FRAME_STATS, 0, R.string.menu_frame_stats);
         menu.add(0, MENU_EXIT, 0, R.string.menu_exit);
 
         return true;
@@ -70,6 +100,15 @@ public class Pong extends Activity {
             case MENU_RESUME:
                 mGameThread.unPause();
                 return true;
+            case MENU_FRAME_STATS:
+                // hiding the overlay logs what it showed
+                if (mGameThread.isFrameStatsOverlayVisible()) {
+                    mGameThread.setFrameStatsOverlay(false);
+                    mGameThread.dumpFrameStats();
+                } else {
+                    mGameThread.setFrameStatsOverlay(true);
+                }
+                return true;
         }
         return false;
     }
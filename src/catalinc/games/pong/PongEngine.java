@@ -0,0 +1,567 @@
+package catalinc.games.pong;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Game simulation: paddles, ball, collisions and scoring.
+ * <p/>
+ * Pure Java, it does not depend on any Android class so it can be stepped on a plain JVM.
+ */
+class PongEngine {
+
+    static final int TICK_PLAY = 0;
+    static final int TICK_WIN  = 1;
+    static final int TICK_LOSE = 2;
+
+    /**
+     * What the ball hit during the last tick, see getEvents().
+     */
+    static final int EVENT_WALL            = 1;
+    static final int EVENT_HUMAN_PADDLE    = 2;
+    static final int EVENT_COMPUTER_PADDLE = 4;
+    static final int EVENT_OBSTACLE        = 8;
+
+    /**
+     * Size of the arena in world units on every device, so the game plays the same whatever the screen. Speeds,
+     * paddle and ball sizes are in the same units, the renderer scales the world to the surface.
+     */
+    static final int    WORLD_WIDTH           = 800;
+    static final int    WORLD_HEIGHT          = 480;
+
+    static final int    PHYS_BALL_SPEED       = 8;
+    static final int    PHYS_PADDLE_SPEED     = 8;
+    static final double PHYS_MAX_BOUNCE_ANGLE = 5 * Math.PI / 12; // 75 degrees in radians
+    /**
+     * How many ticks a paddle keeps glowing after hitting the ball.
+     */
+    static final int    PHYS_COLLISION_FRAMES = 5;
+    /**
+     * Upper bound of ball bounces resolved within one tick.
+     */
+    static final int    PHYS_MAX_BOUNCES      = 4;
+
+    private static final int PLAYER_STATE_SIZE = 8 * 4;
+
+    /**
+     * Size in bytes of the state written by writeState().
+     */
+    static final int STATE_SIZE = 5 * 4 + 2 * PLAYER_STATE_SIZE + 7 * 4 + PredictiveAI.STATE_SIZE
+                                  + 4 + FixedPointPhysics.STATE_SIZE;
+
+    private static final int HIT_NONE     = 0;
+    private static final int HIT_WALL     = 1;
+    private static final int HIT_LEFT     = 2;
+    private static final int HIT_RIGHT    = 3;
+    private static final int HIT_HUMAN    = 4;
+    private static final int HIT_COMPUTER = 5;
+    private static final int HIT_OBSTACLE = 6;
+
+    /**
+     * Smallest horizontal speed after bouncing off an obstacle, the same angle limit as paddle bounces so that the
+     * ball never ends up going up and down forever.
+     */
+    private static final float MIN_BALL_DX = (float) (PHYS_BALL_SPEED * Math.cos(PHYS_MAX_BOUNCE_ANGLE));
+
+    final Player mHumanPlayer;
+    final Player mComputerPlayer;
+    final Ball   mBall;
+
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Used to make the computer aim imperfectly in order to behave more like a human opponent.
+     */
+    private final StatefulRandom mRandomGen;
+
+    private final PredictiveAI mAI;
+
+    private final SweptCollision mSweep;
+
+    /**
+     * The right paddle is driven by a remote player through moveComputerPaddle() instead of the AI.
+     */
+    private boolean mRemoteOpponent;
+
+    private final FixedPointPhysics mFixed;
+
+    /**
+     * Ball and paddles move in fixed point, see FixedPointPhysics.
+     */
+    private boolean mFixedPoint;
+
+    /**
+     * Static obstacles of the arena, null for an empty one. Only the float physics collides with them.
+     */
+    private Level        mLevel;
+    private ObstacleGrid mObstacles;
+
+    private int   mEvents;
+    private float mHitPosition;
+
+    PongEngine(int paddleWidth, int paddleHeight, int ballRadius, long seed) {
+        mHumanPlayer = new Player(paddleWidth, paddleHeight);
+        mComputerPlayer = new Player(paddleWidth, paddleHeight);
+        mBall = new Ball(ballRadius);
+
+        mWidth = 1;
+        mHeight = 1;
+
+        mSweep = new SweptCollision();
+
+        mRandomGen = new StatefulRandom(seed);
+        mAI = new PredictiveAI(this, mRandomGen);
+
+        mFixed = new FixedPointPhysics(this);
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Set the arena size, a new round is set up only if the size actually changed.
+     */
+    void setSize(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        layoutObstacles();
+        setupNewRound();
+    }
+
+    /**
+     * Play in an arena with these obstacles, null for an empty arena.
+     */
+    void setLevel(Level level) {
+        mLevel = level;
+        layoutObstacles();
+    }
+
+    Level getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return the obstacles laid out on the current arena, null if there are none. A new grid is built whenever the
+     * level or the arena size changes, a grid itself never changes.
+     */
+    ObstacleGrid getObstacles() {
+        return mObstacles;
+    }
+
+    private void layoutObstacles() {
+        mObstacles = mLevel != null ? new ObstacleGrid(mLevel, mWidth, mHeight, mBall.radius) : null;
+    }
+
+    /**
+     * Advance the simulation by one physics tick.
+     *
+     * @return TICK_WIN if the human scored, TICK_LOSE if the computer scored, TICK_PLAY otherwise.
+     */
+    int tick() {
+        storePreviousPositions();
+        mEvents = 0;
+
+        if (mHumanPlayer.collision > 0) {
+            mHumanPlayer.collision--;
+        }
+        if (mComputerPlayer.collision > 0) {
+            mComputerPlayer.collision--;
+        }
+
+        doAI();
+
+        return mFixedPoint ? mFixed.moveBall() : moveBall();
+    }
+
+    /**
+     * Human won the round.
+     */
+    void humanScores() {
+        mHumanPlayer.score++;
+        setupNewRound();
+    }
+
+    /**
+     * Computer won the round.
+     */
+    void computerScores() {
+        mComputerPlayer.score++;
+        setupNewRound();
+    }
+
+    /**
+     * Write everything the simulation depends on, so that readState() resumes the exact same match.
+     */
+    void writeState(ByteBuffer b) {
+        b.putInt(mWidth);
+        b.putInt(mHeight);
+        b.putInt(mAI.getDifficulty());
+        b.putLong(mRandomGen.getState());
+        writePlayer(b, mHumanPlayer);
+        writePlayer(b, mComputerPlayer);
+        b.putFloat(mBall.cx);
+        b.putFloat(mBall.cy);
+        b.putFloat(mBall.dx);
+        b.putFloat(mBall.dy);
+        b.putFloat(mBall.prevCx);
+        b.putFloat(mBall.prevCy);
+        b.putInt(mBall.radius);
+        mAI.writeState(b);
+        b.putInt(mFixedPoint ? 1 : 0);
+        mFixed.writeState(b);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the state was saved with a different arena, paddle or ball size. Nothing
+     *                                  is changed then.
+     */
+    void readState(ByteBuffer b) {
+        checkState(b, b.position());
+        b.position(b.position() + 2 * 4); // arena size, same as ours
+        mAI.setDifficulty(b.getInt());
+        mRandomGen.setState(b.getLong());
+        readPlayer(b, mHumanPlayer);
+        readPlayer(b, mComputerPlayer);
+        mBall.cx = b.getFloat();
+        mBall.cy = b.getFloat();
+        mBall.dx = b.getFloat();
+        mBall.dy = b.getFloat();
+        mBall.prevCx = b.getFloat();
+        mBall.prevCy = b.getFloat();
+        b.getInt(); // radius, same as ours
+        mAI.readState(b);
+        mFixedPoint = b.getInt() != 0;
+        if (mFixedPoint) {
+            mFixed.readState(b);
+        } else {
+            b.position(b.position() + FixedPointPhysics.STATE_SIZE);
+        }
+    }
+
+    /**
+     * Check the sizes in a state written by writeState() at the given offset before anything is overwritten, the
+     * obstacle grid is laid out for our arena.
+     */
+    private void checkState(ByteBuffer b, int offset) {
+        if (b.getInt(offset) != mWidth || b.getInt(offset + 4) != mHeight) {
+            throw new IllegalArgumentException("Arena size changed");
+        }
+        final int human = offset + 5 * 4;
+        final int computer = human + PLAYER_STATE_SIZE;
+        if (b.getInt(human + 6 * 4) != mHumanPlayer.paddleWidth
+            || b.getInt(human + 7 * 4) != mHumanPlayer.paddleHeight
+            || b.getInt(computer + 6 * 4) != mComputerPlayer.paddleWidth
+            || b.getInt(computer + 7 * 4) != mComputerPlayer.paddleHeight) {
+            throw new IllegalArgumentException("Paddle size changed");
+        }
+        if (b.getInt(computer + PLAYER_STATE_SIZE + 6 * 4) != mBall.radius) {
+            throw new IllegalArgumentException("Ball size changed");
+        }
+    }
+
+    private static void writePlayer(ByteBuffer b, Player player) {
+        b.putFloat(player.left);
+        b.putFloat(player.top);
+        b.putFloat(player.prevLeft);
+        b.putFloat(player.prevTop);
+        b.putInt(player.score);
+        b.putInt(player.collision);
+        b.putInt(player.paddleWidth);
+        b.putInt(player.paddleHeight);
+    }
+
+    private static void readPlayer(ByteBuffer b, Player player) {
+        player.left = b.getFloat();
+        player.top = b.getFloat();
+        player.prevLeft = b.getFloat();
+        player.prevTop = b.getFloat();
+        player.score = b.getInt();
+        player.collision = b.getInt();
+        b.position(b.position() + 2 * 4); // paddle size, same as ours
+    }
+
+    /**
+     * Reseed the random generator, e.g. to make the rest of the match reproducible.
+     */
+    void setSeed(long seed) {
+        mRandomGen.setSeed(seed);
+    }
+
+    void setDifficulty(int difficulty) {
+        mAI.setDifficulty(difficulty);
+    }
+
+    int getDifficulty() {
+        return mAI.getDifficulty();
+    }
+
+    void resetScore() {
+        mHumanPlayer.score = 0;
+        mComputerPlayer.score = 0;
+    }
+
+    void moveHumanPaddle(float dy) {
+        movePlayer(mHumanPlayer, mHumanPlayer.left, mHumanPlayer.top + dy);
+    }
+
+    void moveComputerPaddle(float dy) {
+        movePlayer(mComputerPlayer, mComputerPlayer.left, mComputerPlayer.top + dy);
+    }
+
+    void setRemoteOpponent(boolean remote) {
+        mRemoteOpponent = remote;
+    }
+
+    /**
+     * Switch between the float and the fixed point physics, the match goes on from the current positions.
+     */
+    void setFixedPoint(boolean fixedPoint) {
+        if (fixedPoint && !mFixedPoint) {
+            mFixed.load();
+        }
+        mFixedPoint = fixedPoint;
+    }
+
+    boolean isFixedPoint() {
+        return mFixedPoint;
+    }
+
+    /**
+     * @return EVENT_* flags of what the ball hit during the last tick, for visual effects only.
+     */
+    int getEvents() {
+        return mEvents;
+    }
+
+    void addEvent(int event) {
+        mEvents |= event;
+    }
+
+    /**
+     * @return where the ball last hit a paddle, from -1 at the bottom to 1 at the top.
+     */
+    float getHitPosition() {
+        return mHitPosition;
+    }
+
+    void setHitPosition(float position) {
+        mHitPosition = position;
+    }
+
+    boolean isTouchOnHumanPaddle(float x, float y) {
+        return mHumanPlayer.contains(x, y);
+    }
+
+    /**
+     * Reset players and ball position for a new round.
+     */
+    void setupNewRound() {
+        mBall.cx = mWidth / 2;
+        mBall.cy = mHeight / 2;
+        mBall.dx = -PHYS_BALL_SPEED;
+        mBall.dy = 0;
+
+        movePlayer(mHumanPlayer,
+                   2,
+                   (mHeight - mHumanPlayer.paddleHeight) / 2);
+
+        movePlayer(mComputerPlayer,
+                   mWidth - mComputerPlayer.paddleWidth - 2,
+                   (mHeight - mComputerPlayer.paddleHeight) / 2);
+
+        if (mFixedPoint) {
+            mFixed.loadBall();
+        }
+        mAI.reset();
+        storePreviousPositions();
+    }
+
+    /**
+     * Remember current positions as the start point for render interpolation.
+     */
+    void storePreviousPositions() {
+        mBall.prevCx = mBall.cx;
+        mBall.prevCy = mBall.cy;
+        mHumanPlayer.prevLeft = mHumanPlayer.left;
+        mHumanPlayer.prevTop = mHumanPlayer.top;
+        mComputerPlayer.prevLeft = mComputerPlayer.left;
+        mComputerPlayer.prevTop = mComputerPlayer.top;
+    }
+
+    void movePlayer(Player player, float left, float top) {
+        if (mFixedPoint) {
+            mFixed.movePlayer(player, left, top);
+            return;
+        }
+        if (left < 2) {
+            left = 2;
+        } else if (left + player.paddleWidth >= mWidth - 2) {
+            left = mWidth - player.paddleWidth - 2;
+        }
+        if (top < 0) {
+            top = 0;
+        } else if (top + player.paddleHeight >= mHeight) {
+            top = mHeight - player.paddleHeight - 1;
+        }
+        player.left = left;
+        player.top = top;
+    }
+
+    /**
+     * Sweep the ball along its velocity for one tick, resolving every bounce on the way in time order.
+     */
+    private int moveBall() {
+        final Ball ball = mBall;
+        float remaining = 1.0f;
+        for (int i = 0; i < PHYS_MAX_BOUNCES && remaining > 0; i++) {
+            float time = remaining;
+            int hit = HIT_NONE;
+
+            // cheap end point test first, divide only when the wall is actually crossed
+            final float ey = ball.cy + ball.dy * time;
+            final float ex = ball.cx + ball.dx * time;
+            if (ball.dy < 0 && ey <= ball.radius) {
+                float t = (ball.radius - ball.cy) / ball.dy;
+                if (t <= time) {
+                    time = Math.max(t, 0);
+                    hit = HIT_WALL;
+                }
+            } else if (ball.dy > 0 && ey + ball.radius >= mHeight - 1) {
+                float t = (mHeight - 1 - ball.radius - ball.cy) / ball.dy;
+                if (t <= time) {
+                    time = Math.max(t, 0);
+                    hit = HIT_WALL;
+                }
+            }
+            if (ball.dx < 0 && ex <= ball.radius) {
+                float t = (ball.radius - ball.cx) / ball.dx;
+                if (t <= time) {
+                    time = Math.max(t, 0);
+                    hit = HIT_LEFT;
+                }
+            } else if (ball.dx > 0 && ex + ball.radius >= mWidth - 1) {
+                float t = (mWidth - 1 - ball.radius - ball.cx) / ball.dx;
+                if (t <= time) {
+                    time = Math.max(t, 0);
+                    hit = HIT_RIGHT;
+                }
+            }
+            if (mSweep.ballVsPaddle(ball, mHumanPlayer, time)) {
+                time = mSweep.time;
+                hit = HIT_HUMAN;
+            }
+            if (mSweep.ballVsPaddle(ball, mComputerPlayer, time)) {
+                time = mSweep.time;
+                hit = HIT_COMPUTER;
+            }
+            if (mObstacles != null && mObstacles.sweep(ball, time)) {
+                time = mObstacles.time;
+                hit = HIT_OBSTACLE;
+            }
+
+            ball.cx += ball.dx * time;
+            ball.cy += ball.dy * time;
+            remaining -= time;
+
+            switch (hit) {
+                case HIT_NONE:
+                    remaining = 0;
+                    break;
+                case HIT_WALL:
+                    ball.dy = -ball.dy;
+                    mEvents |= EVENT_WALL;
+                    break;
+                case HIT_HUMAN:
+                    handleCollision(mHumanPlayer, ball);
+                    mHumanPlayer.collision = PHYS_COLLISION_FRAMES;
+                    mEvents |= EVENT_HUMAN_PADDLE;
+                    break;
+                case HIT_COMPUTER:
+                    handleCollision(mComputerPlayer, ball);
+                    mComputerPlayer.collision = PHYS_COLLISION_FRAMES;
+                    mEvents |= EVENT_COMPUTER_PADDLE;
+                    break;
+                case HIT_OBSTACLE:
+                    bounce(ball, mObstacles.nx, mObstacles.ny);
+                    mEvents |= EVENT_OBSTACLE;
+                    break;
+                case HIT_RIGHT:
+                    return TICK_WIN;    // human plays on left
+                case HIT_LEFT:
+                    return TICK_LOSE;
+            }
+        }
+
+        if (ball.cy < ball.radius) {
+            ball.cy = ball.radius;
+        } else if (ball.cy + ball.radius >= mHeight) {
+            ball.cy = mHeight - ball.radius - 1;
+        }
+
+        return TICK_PLAY;
+    }
+
+    /**
+     * Move the computer paddle to hit the ball.
+     */
+    private void doAI() {
+        if (mRemoteOpponent) {
+            return;
+        }
+        mAI.update(mComputerPlayer, mBall);
+    }
+
+    /**
+     * Reflect the ball off a surface with the given unit normal, keeping its speed.
+     */
+    private static void bounce(Ball ball, float nx, float ny) {
+        final float dot = ball.dx * nx + ball.dy * ny;
+        if (dot >= 0) {
+            return;
+        }
+        float dx = ball.dx - 2 * dot * nx;
+        float dy = ball.dy - 2 * dot * ny;
+        final float absDx = Math.abs(dx);
+        if (absDx < MIN_BALL_DX) {
+            // folded above the limit rather than clamped to it, so that different bounces keep different angles
+            // and the ball cannot settle into a loop between obstacles
+            final float steer = 2 * MIN_BALL_DX - absDx;
+            final float speed = (float) Math.sqrt(dx * dx + dy * dy);
+            // away from the surface, the bounce would otherwise be turned back into it
+            dx = (nx != 0 ? nx < 0 : dx < 0) ? -steer : steer;
+            dy = (dy < 0 ? -1 : 1) * (float) Math.sqrt(Math.max(speed * speed - steer * steer, 0));
+        }
+        ball.dx = dx;
+        ball.dy = dy;
+    }
+
+    /**
+     * Compute ball direction after collision with player paddle.
+     */
+    private void handleCollision(Player player, Ball ball) {
+        float relativeIntersectY = player.top + player.paddleHeight / 2 - ball.cy;
+        float normalizedRelativeIntersectY = relativeIntersectY / (player.paddleHeight / 2);
+        // corner hits land beyond the paddle ends
+        if (normalizedRelativeIntersectY > 1) {
+            normalizedRelativeIntersectY = 1;
+        } else if (normalizedRelativeIntersectY < -1) {
+            normalizedRelativeIntersectY = -1;
+        }
+        mHitPosition = normalizedRelativeIntersectY;
+        double bounceAngle = normalizedRelativeIntersectY * PHYS_MAX_BOUNCE_ANGLE;
+
+        // always send the ball back towards the opponent
+        float direction = player == mHumanPlayer ? 1 : -1;
+        ball.dx = (float) (direction * PHYS_BALL_SPEED * Math.cos(bounceAngle));
+        ball.dy = (float) (PHYS_BALL_SPEED * -Math.sin(bounceAngle));
+    }
+
+}
@@ -1,26 +1,34 @@
 package catalinc.games.pong;
 
 import android.content.Context;
-import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
-import android.os.Message;
-import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.View;
 
-import java.util.Random;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 /**
  * Handle animation, game logic and user input.
+ * <p/>
+ * The thread lives as long as the view and owns the game state, paints and cached sprites. It draws while a surface
+ * is attached and waits for the next one in between, so coming back from the background only has to start drawing
+ * again.
  */
 public class PongThread extends Thread {
 
@@ -30,91 +38,354 @@ public class PongThread extends Thread {
     public static final int STATE_LOSE    = 3;
     public static final int STATE_WIN     = 4;
 
-    private static final int    PHYS_BALL_SPEED       = 8;
-    private static final int    PHYS_PADDLE_SPEED     = 8;
-    private static final int    PHYS_FPS              = 60;
-    private static final double PHYS_MAX_BOUNCE_ANGLE = 5 * Math.PI / 12; // 75 degrees in radians
-    private static final int    PHYS_COLLISION_FRAMES = 5;
+    private static final int  PHYS_FPS          = 60;
+    private static final long PHYS_TICK_NANOS   = 1000000000L / PHYS_FPS;
+    /**
+     * Upper bound of physics ticks run before drawing a frame, to avoid the spiral of death on slow devices.
+     */
+    private static final int  PHYS_MAX_TICKS    = 5;
+    /**
+     * A frame longer than this is a stall (pause, GC, surface change) and the clock is resynchronized.
+     */
+    private static final long STALL_NANOS       = 250000000L;
+    /**
+     * The sleep scheduler does not draw faster than this even if the surface does not throttle us.
+     */
+    private static final int  MAX_RENDER_FPS    = 120;
+    private static final long MIN_FRAME_NANOS   = 1000000000L / MAX_RENDER_FPS;
+
+    private static final int SCHEDULER_VSYNC = 0;
+    private static final int SCHEDULER_SLEEP = 1;
+
+    /**
+     * Value of the quality attribute letting the QualityGovernor pick the tier, other values are fixed tiers.
+     */
+    private static final int QUALITY_AUTO = -1;
+
+    /**
+     * Paint ids in recorded draw lists.
+     */
+    private static final int PAINT_BALL        = 0;
+    private static final int PAINT_ARENA_BALL  = 1;
+    private static final int PAINT_SCORE       = 2;
+    private static final int PAINT_FRAME_STATS = 3;
+    /**
+     * First of the ParticleSystem.GROUPS particle paints.
+     */
+    private static final int PAINT_PARTICLE    = 4;
+    private static final int PAINT_COUNT       = PAINT_PARTICLE + ParticleSystem.GROUPS;
+
+    private static final int PARTICLE_CAPACITY = 1024;
+
+    private static final long TELEMETRY_FILE_BYTES     = 1024 * 1024;
+    private static final int  TELEMETRY_FILES          = 4;
+    private static final int  TELEMETRY_QUEUE_CAPACITY = 1024;
+    private static final int TRAIL_TICKS       = 8;
+    private static final int WALL_SPARKS       = 6;
+    private static final int PADDLE_SPARKS     = 16;
+
+    private static final int FRAME_STATS_REFRESH_FRAMES = 15;
+
+    private static final int INPUT_QUEUE_CAPACITY = 256;
+
+    /**
+     * Text sizes and the baseline of the score, in world units.
+     */
+    private static final float SCORE_TEXT_SIZE       = 36;
+    private static final float SCORE_TOP             = 66;
+    private static final float FRAME_STATS_TEXT_SIZE = 18;
+
+    /**
+     * Extra world units around moving objects repainted in dirty region mode, covers anti-aliasing.
+     */
+    private static final int DIRTY_MARGIN = 2;
 
-    private static final String KEY_HUMAN_PLAYER_DATA    = "humanPlayer";
-    private static final String KEY_COMPUTER_PLAYER_DATA = "computerPlayer";
-    private static final String KEY_BALL_DATA            = "ball";
-    private static final String KEY_GAME_STATE           = "state";
+    private static final String KEY_SNAPSHOT = "snapshot";
 
     private static final String TAG = "PongThread";
 
+    /**
+     * Status text resource id meaning the status view is hidden.
+     */
+    static final int STATUS_HIDDEN = 0;
+
     private final SurfaceHolder mSurfaceHolder;
 
     private final Handler mStatusHandler;
 
     private final Handler mScoreHandler;
 
+    /**
+     * Told when the surface buffer should be resized for a quality tier.
+     */
+    private final Handler mResolutionHandler;
+
     private final Context mContext;
 
-    private       boolean mRun;
-    private final Object  mRunLock;
+    /**
+     * Cleared by quit(), ends the thread. Both flags are written with mRunLock held.
+     */
+    private volatile boolean mRun;
+    /**
+     * Whether there is a surface to draw on, between attachSurface() and detachSurface().
+     */
+    private volatile boolean mSurfaceReady;
+    /**
+     * Whether the loop may still use the surface, detachSurface() waits until it is cleared. Guarded by mRunLock.
+     */
+    private          boolean mSurfaceInUse;
+    private final    Object  mRunLock;
+    /**
+     * When the surface was attached, until its first frame is posted.
+     */
+    private          long    mAttachNanos;
+
+    private final FrameScheduler mScheduler;
+    private final FixedTimestep  mTimestep;
+
+    /**
+     * The loop parks while nothing moves, until something asks for a frame. Guarded by mIdleLock.
+     */
+    private final Object  mIdleLock;
+    private       boolean mFrameRequested;
 
     private int mState;
 
-    private Player mHumanPlayer;
-    private Player mComputerPlayer;
-    private Ball   mBall;
+    private final PongEngine mEngine;
+    private final Player     mHumanPlayer;
+    private final Player     mComputerPlayer;
+    private final Ball       mBall;
+
+    /**
+     * Chaos mode with many balls at once, null when playing with a single ball.
+     */
+    private final MultiBallArena mArena;
+    private final int            mArenaBalls;
+    private final float[]        mArenaPoints;
+    private       Paint          mArenaBallPaint;
+
+    /**
+     * Sparks on hits and the ball trail, null in chaos mode.
+     */
+    private final ParticleSystem mParticles;
+    private final float[]        mParticlePoints;
+
+    /**
+     * Network game against a remote player, null when playing against the computer.
+     */
+    private RollbackSession mSession;
+    /**
+     * Local paddle move accumulated since the last tick of a network game.
+     */
+    private float           mPendingLocalInput;
+
+    private Paint mHumanPlayerPaint;
+    private Paint mComputerPlayerPaint;
+    private Paint mBallPaint;
 
     private Paint mMedianLinePaint;
 
     private Paint mCanvasBoundsPaint;
-    private int   mCanvasHeight;
-    private int   mCanvasWidth;
 
     /**
-     * Used to make computer to "forget" to move the paddle in order to behave more like a human opponent.
+     * Rendering quality, picked from frame work times unless the layout fixes it.
+     */
+    private final QualityGovernor mQuality;
+    private final boolean         mAdaptiveQuality;
+    /**
+     * Tier of the frame being recorded, read from the governor once per frame.
+     */
+    private       int             mFrameQuality;
+
+    /**
+     * Frames are recorded as draw lists and replayed by mRenderer, either right away on this thread or, when
+     * pipelined, on a render thread while the next frame is simulated.
      */
-    private Random mRandomGen;
+    private final boolean          mPipelined;
+    private final DrawList         mDrawList;
+    private final DrawListBuffer   mDrawBuffer;
+    private final DrawListRenderer mRenderer;
+    /**
+     * Incremented to have the renderer drop its prerendered arena and paddles.
+     */
+    private       int              mSpriteGeneration;
+
+    /**
+     * Maps the world to the surface buffer for drawing, and to the view for touch events. Both differ when the
+     * surface has a fixed size scaled by the compositor.
+     */
+    private final Viewport mSurfaceViewport;
+    private final Viewport mTouchViewport;
+    /**
+     * Height of the surface buffer in pixels at full resolution, 0 for the view height.
+     */
+    private final int      mRenderHeight;
+
+    /**
+     * Draw the score on the game surface instead of publishing it to the score view.
+     */
+    private final boolean   mScoreOnSurface;
+    private final ScoreText mScoreText;
+    private       Paint     mScorePaint;
 
     /**
-     * The probability to move computer paddle.
+     * Touch events from the UI thread, drained by the game thread once per frame.
      */
-    private float mComputerMoveProbability;
+    private final InputQueue mInputQueue;
 
+    /**
+     * Physics mode against the computer, network games always use the fixed point one.
+     */
+    private final boolean mFixedPoint;
+
+    /**
+     * Whether the human is dragging the paddle and where the last touch was, game thread only.
+     */
+    private boolean mMovingHumanPaddle;
+    private float   mLastTouchY;
+
+    /**
+     * Repaint only the region covering the previous and current position of moving objects.
+     */
+    private final boolean mDirtyRegions;
+    private       boolean mFullRedraw;
+    private final Rect    mDirtyRegion;
+    private final RectF   mBallDrawn;
+    private final RectF   mHumanPaddleDrawn;
+    private final RectF   mComputerPaddleDrawn;
+    private final RectF   mParticlesDrawn;
+
+    /**
+     * Reusable buffers for saving and restoring the game, one for the game thread state and one for file I/O.
+     */
+    private final GameSnapshot mSnapshot;
+    private final GameSnapshot mFileSnapshot;
+
+    /**
+     * Log of the current match, written while a recording file is set.
+     */
+    private File          mRecordingFile;
+    private MatchRecorder mRecorder;
+    /**
+     * The recorder stopped last, its writer may still be finishing the file.
+     */
+    private MatchRecorder mLastRecorder;
+
+    /**
+     * Gameplay analytics of single ball games against the computer, null when not collected.
+     */
+    private TelemetryWriter mTelemetry;
+    private long            mTelemetryTicks;
+    private long            mRoundTicks;
+    private int             mRallyHits;
+
+    /**
+     * Timing of game loop phases, always recorded, optionally shown as an overlay.
+     */
+    private final FrameStats mFrameStats;
+    private volatile boolean mFrameStatsOverlay;
+    private volatile boolean mDumpFrameStats;
+    private          int     mGcCountAtReset;
+    private final    char[][] mFrameStatsLines;
+    private final    int[]   mFrameStatsLengths;
+    private          int     mFrameStatsAge;
+    private          Paint   mFrameStatsPaint;
+
+    /**
+     * Last values published to the UI thread, used to send messages only on change.
+     */
+    private int mShownHumanScore;
+    private int mShownComputerScore;
+    private int mShownStatus;
 
     PongThread(final SurfaceHolder surfaceHolder,
                final Context context,
                final Handler statusHandler,
                final Handler scoreHandler,
+               final Handler resolutionHandler,
                final AttributeSet attributeSet) {
         mSurfaceHolder = surfaceHolder;
         mStatusHandler = statusHandler;
         mScoreHandler = scoreHandler;
+        mResolutionHandler = resolutionHandler;
         mContext = context;
 
-        mRun = false;
+        mRun = true;
         mRunLock = new Object();
+        mIdleLock = new Object();
 
         TypedArray a = context.obtainStyledAttributes(attributeSet, R.styleable.PongView);
 
         int paddleHeight = a.getInt(R.styleable.PongView_paddleHeight, 85);
         int paddleWidth = a.getInt(R.styleable.PongView_paddleWidth, 25);
         int ballRadius = a.getInt(R.styleable.PongView_ballRadius, 15);
+        mFrameStatsOverlay = a.getBoolean(R.styleable.PongView_frameStats, false);
+        mScoreOnSurface = a.getBoolean(R.styleable.PongView_scoreOnSurface, false);
+        mDirtyRegions = a.getBoolean(R.styleable.PongView_dirtyRegions, false);
+        mPipelined = a.getBoolean(R.styleable.PongView_pipelined, false);
+        mFixedPoint = a.getBoolean(R.styleable.PongView_fixedPoint, false);
+        int difficulty = a.getInt(R.styleable.PongView_difficulty, PredictiveAI.DIFFICULTY_MEDIUM);
+        int scheduler = a.getInt(R.styleable.PongView_frameScheduler,
+                                 Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                                 ? SCHEDULER_VSYNC : SCHEDULER_SLEEP);
+        mArenaBalls = a.getInt(R.styleable.PongView_multiBall, 0);
+        int arenaBallRadius = a.getInt(R.styleable.PongView_multiBallRadius, 4);
+        int levelId = a.getResourceId(R.styleable.PongView_level, 0);
+        int quality = a.getInt(R.styleable.PongView_quality, QUALITY_AUTO);
+        mRenderHeight = a.getInt(R.styleable.PongView_renderHeight, 0);
 
         a.recycle();
 
-        Paint humanPlayerPaint = new Paint();
-        humanPlayerPaint.setAntiAlias(true);
-        humanPlayerPaint.setColor(Color.BLUE);
+        if (scheduler == SCHEDULER_VSYNC) {
+            mScheduler = new VsyncFrameScheduler();
+        } else {
+            mScheduler = new SleepFrameScheduler(MIN_FRAME_NANOS);
+        }
+        mTimestep = new FixedTimestep(PHYS_TICK_NANOS, PHYS_MAX_TICKS, STALL_NANOS);
+        // start with everything on, slow devices drop tiers within the first seconds
+        mAdaptiveQuality = quality == QUALITY_AUTO;
+        mQuality = new QualityGovernor(PHYS_TICK_NANOS, mAdaptiveQuality ? QualityGovernor.TIER_FULL : quality);
+        mFrameQuality = mQuality.getTier();
+
+        mEngine = new PongEngine(paddleWidth, paddleHeight, ballRadius, System.nanoTime());
+        mHumanPlayer = mEngine.mHumanPlayer;
+        mComputerPlayer = mEngine.mComputerPlayer;
+        mBall = mEngine.mBall;
+        mEngine.setDifficulty(difficulty);
+        mEngine.setFixedPoint(mFixedPoint);
+        mEngine.setSize(PongEngine.WORLD_WIDTH, PongEngine.WORLD_HEIGHT);
+        if (levelId != 0 && mArenaBalls <= 1) {
+            mEngine.setLevel(loadLevel(context, levelId));
+        }
 
-        mHumanPlayer = new Player(paddleWidth, paddleHeight, humanPlayerPaint);
+        if (mArenaBalls > 1) {
+            mArena = new MultiBallArena(mEngine, mArenaBalls, arenaBallRadius, System.nanoTime());
+            mArenaPoints = new float[2 * mArenaBalls];
+            mParticles = null;
+            mParticlePoints = null;
+        } else {
+            mArena = null;
+            mArenaPoints = null;
+            mParticles = new ParticleSystem(PARTICLE_CAPACITY, System.nanoTime());
+            mParticlePoints = new float[2 * PARTICLE_CAPACITY];
+        }
 
-        Paint computerPlayerPaint = new Paint();
-        computerPlayerPaint.setAntiAlias(true);
-        computerPlayerPaint.setColor(Color.RED);
+        mHumanPlayerPaint = new Paint();
+        mHumanPlayerPaint.setAntiAlias(true);
+        mHumanPlayerPaint.setColor(Color.BLUE);
 
-        mComputerPlayer = new Player(paddleWidth, paddleHeight, computerPlayerPaint);
+        mComputerPlayerPaint = new Paint();
+        mComputerPlayerPaint.setAntiAlias(true);
+        mComputerPlayerPaint.setColor(Color.RED);
 
-        Paint ballPaint = new Paint();
-        ballPaint.setAntiAlias(true);
-        ballPaint.setColor(Color.GREEN);
+        mBallPaint = new Paint();
+        mBallPaint.setAntiAlias(true);
+        mBallPaint.setColor(Color.GREEN);
 
-        mBall = new Ball(ballRadius, ballPaint);
+        // all balls of the chaos mode are drawn in one call, as round points
+        mArenaBallPaint = new Paint(mBallPaint);
+        mArenaBallPaint.setStrokeCap(Paint.Cap.ROUND);
+        mArenaBallPaint.setStrokeWidth(2 * arenaBallRadius);
 
         mMedianLinePaint = new Paint();
         mMedianLinePaint.setAntiAlias(true);
@@ -130,122 +401,598 @@ public class PongThread extends Thread {
         mCanvasBoundsPaint.setStyle(Paint.Style.STROKE);
         mCanvasBoundsPaint.setStrokeWidth(1.0f);
 
-        mCanvasHeight = 1;
-        mCanvasWidth = 1;
+        Paint obstaclePaint = new Paint();
+        obstaclePaint.setAntiAlias(true);
+        obstaclePaint.setColor(0xFF8080A0);
+        obstaclePaint.setStyle(Paint.Style.FILL_AND_STROKE);
+        obstaclePaint.setStrokeCap(Paint.Cap.ROUND);
+
+        mScorePaint = new Paint();
+        mScorePaint.setAntiAlias(true);
+        mScorePaint.setColor(0xFFFF7D27);
+        mScorePaint.setTextSize(SCORE_TEXT_SIZE);
+        mScorePaint.setTextAlign(Paint.Align.CENTER);
+
+        mScoreText = new ScoreText();
+
+        mInputQueue = new InputQueue(INPUT_QUEUE_CAPACITY);
+
+        mSnapshot = new GameSnapshot();
+        mFileSnapshot = new GameSnapshot();
+
+        mSurfaceViewport = new Viewport();
+        mTouchViewport = new Viewport();
+
+        mFullRedraw = true;
+        mDirtyRegion = new Rect();
+        mBallDrawn = new RectF();
+        mHumanPaddleDrawn = new RectF();
+        mComputerPaddleDrawn = new RectF();
+        mParticlesDrawn = new RectF();
+
+        mFrameStats = new FrameStats(PHYS_TICK_NANOS);
+        mGcCountAtReset = gcCount();
+        mFrameStatsLines = new char[FrameStats.PHASE_COUNT + 1][FrameStats.LINE_LENGTH];
+        mFrameStatsLengths = new int[FrameStats.PHASE_COUNT + 1];
+
+        mFrameStatsPaint = new Paint();
+        mFrameStatsPaint.setColor(Color.WHITE);
+        mFrameStatsPaint.setTextSize(FRAME_STATS_TEXT_SIZE);
+
+        Paint[] paints = new Paint[PAINT_COUNT];
+        paints[PAINT_BALL] = mBallPaint;
+        paints[PAINT_ARENA_BALL] = mArenaBallPaint;
+        paints[PAINT_SCORE] = mScorePaint;
+        paints[PAINT_FRAME_STATS] = mFrameStatsPaint;
+        for (int level = 0; level < ParticleSystem.FADE_LEVELS; level++) {
+            // particles of a group are drawn in one call, as round points fading in steps
+            Paint trail = new Paint(mBallPaint);
+            trail.setStrokeCap(Paint.Cap.ROUND);
+            trail.setStrokeWidth(ballRadius);
+            trail.setAlpha(24 + 24 * level);
+            paints[PAINT_PARTICLE + ParticleSystem.KIND_TRAIL * ParticleSystem.FADE_LEVELS + level] = trail;
+            Paint spark = new Paint();
+            spark.setAntiAlias(true);
+            spark.setColor(0xFFFFD040);
+            spark.setStrokeCap(Paint.Cap.ROUND);
+            spark.setStrokeWidth(3);
+            spark.setAlpha(63 + 64 * level);
+            paints[PAINT_PARTICLE + ParticleSystem.KIND_SPARK * ParticleSystem.FADE_LEVELS + level] = spark;
+        }
+        mRenderer = new DrawListRenderer(new SpriteCache(mCanvasBoundsPaint, mMedianLinePaint, obstaclePaint), paints,
+                                         mHumanPlayer, mHumanPlayerPaint, mComputerPlayer, mComputerPlayerPaint);
+        int maxPoints = mArena != null ? 2 * mArenaBalls : 2 * PARTICLE_CAPACITY;
+        if (mPipelined) {
+            mDrawBuffer = new DrawListBuffer(maxPoints);
+            mDrawList = null;
+        } else {
+            mDrawBuffer = null;
+            mDrawList = new DrawList(maxPoints);
+        }
 
-        mRandomGen = new Random();
-        mComputerMoveProbability = 0.6f;
+        mShownHumanScore = -1;
+        mShownComputerScore = -1;
+        mShownStatus = -1;
     }
 
-    /**
-     * The game loop.
-     */
     @Override
     public void run() {
-        long mNextGameTick = SystemClock.uptimeMillis();
-        int skipTicks = 1000 / PHYS_FPS;
-        while (mRun) {
+        while (awaitSurface()) {
+            runFrames();
+            // a network peer cannot wait for us and a match log would be lost if the process is killed meanwhile
+            synchronized (mSurfaceHolder) {
+                stopNetworkGame();
+                stopRecording();
+            }
+        }
+        mScheduler.release();
+        synchronized (mSurfaceHolder) {
+            stopRecording();
+            stopTelemetry();
+        }
+    }
+
+    /**
+     * The game loop, while the surface is attached.
+     * <p/>
+     * Frames are started by the frame scheduler. Physics runs at a fixed PHYS_FPS rate, decoupled from drawing:
+     * the time elapsed since the last frame is consumed in fixed ticks, then the frame is drawn interpolated
+     * between the last two ticks.
+     */
+    private void runFrames() {
+        final FrameStats stats = mFrameStats;
+        final FrameScheduler scheduler = mScheduler;
+        final FixedTimestep timestep = mTimestep;
+        long lastFrameTime = scheduler.now();
+        timestep.start(lastFrameTime);
+        final QualityGovernor quality = mAdaptiveQuality ? mQuality : null;
+        if (quality != null) {
+            // the first frames on a new surface pay for sprites and warm up, they do not tell the device speed
+            quality.resetWindow();
+        }
+        boolean resumed = false;
+        RenderThread renderThread = null;
+        if (mPipelined) {
+            renderThread = new RenderThread(mSurfaceHolder, mDrawBuffer, mRenderer, stats, quality);
+            renderThread.start();
+        }
+        while (isDrawing()) {
+            long waitStart = System.nanoTime();
+            long frameTime;
+            try {
+                frameTime = scheduler.awaitFrame();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interrupted", e);
+                continue;
+            }
+            stats.record(FrameStats.PHASE_SLEEP, System.nanoTime() - waitStart);
+            if (!isDrawing()) {
+                break;
+            }
+            if (!resumed) {
+                // the time spent parked is not a frame
+                stats.recordFrame(frameTime - lastFrameTime);
+            }
+            lastFrameTime = frameTime;
+            synchronized (mIdleLock) {
+                // anything changing from now on is drawn by this frame or asks for another one
+                mFrameRequested = false;
+            }
             Canvas c = null;
+            boolean idle;
+            final long frameStart = System.nanoTime();
             try {
-                c = mSurfaceHolder.lockCanvas(null);
-                if (c != null) {
-                    synchronized (mSurfaceHolder) {
-                        if (mState == STATE_RUNNING) {
-                            updatePhysics();
-                        }
-                        synchronized (mRunLock) {
-                            if (mRun) {
-                                updateDisplay(c);
+                synchronized (mSurfaceHolder) {
+                    long now = System.nanoTime();
+                    processInput(now);
+                    updateQuality();
+
+                    int ticks = timestep.frame(frameTime, mState == STATE_RUNNING);
+                    for (int i = 0; i < ticks && mState == STATE_RUNNING; i++) {
+                        updatePhysics();
+                    }
+                    float alpha = 1.0f;
+                    if (mState != STATE_RUNNING) {
+                        timestep.stop();
+                    } else {
+                        alpha = timestep.alpha();
+                    }
+                    if (mPipelined) {
+                        // the render thread records lock, draw and post, recording counts as physics here
+                        recordFrame(mDrawBuffer.beginFrame(), alpha);
+                        mDrawBuffer.publish();
+                        stats.record(FrameStats.PHASE_PHYSICS, System.nanoTime() - now);
+                        logFirstFrame();
+                        idle = mState != STATE_RUNNING;
+                    } else {
+                        long simulated = System.nanoTime();
+                        stats.record(FrameStats.PHASE_PHYSICS, simulated - now);
+
+                        c = mSurfaceHolder.lockCanvas(computeDirtyRegion(alpha));
+                        long locked = System.nanoTime();
+                        stats.record(FrameStats.PHASE_LOCK, locked - simulated);
+
+                        if (c != null) {
+                            synchronized (mRunLock) {
+                                if (isDrawing()) {
+                                    // the whole scene is recorded again, the lock clips it to the dirty region
+                                    mDrawList.reset();
+                                    recordFrame(mDrawList, alpha);
+                                    mRenderer.draw(c, mDrawList);
+                                }
                             }
+                            stats.record(FrameStats.PHASE_DRAW, System.nanoTime() - locked);
+                        } else {
+                            // nothing was drawn, the next frame must repaint everything
+                            mFullRedraw = true;
                         }
+                        idle = mState != STATE_RUNNING && c != null;
                     }
                 }
             } finally {
                 if (c != null) {
+                    long posting = System.nanoTime();
                     mSurfaceHolder.unlockCanvasAndPost(c);
+                    long posted = System.nanoTime();
+                    stats.record(FrameStats.PHASE_POST, posted - posting);
+                    if (quality != null) {
+                        quality.frame(posted - frameStart);
+                    }
+                    logFirstFrame();
                 }
             }
-            mNextGameTick += skipTicks;
-            long sleepTime = mNextGameTick - SystemClock.uptimeMillis();
-            if (sleepTime > 0) {
+            if (mDumpFrameStats) {
+                mDumpFrameStats = false;
+                Log.i(TAG, "Frame stats\n" + stats.summary(gcCountSinceReset()) + "\nquality tier " + mQuality.getTier()
+                           + ", " + mQuality.getDowngrades() + " down, " + mQuality.getUpgrades() + " up");
+            }
+            resumed = idle && park();
+        }
+        if (renderThread != null) {
+            stopRenderThread(renderThread);
+        }
+    }
+
+    private boolean isDrawing() {
+        return mRun && mSurfaceReady;
+    }
+
+    /**
+     * Wait until a surface is attached, after telling detachSurface() that the previous one is no longer used.
+     *
+     * @return false if the thread should end.
+     */
+    private boolean awaitSurface() {
+        synchronized (mRunLock) {
+            mSurfaceInUse = false;
+            mRunLock.notifyAll();
+            while (mRun && !mSurfaceReady) {
                 try {
-                    Thread.sleep(sleepTime);
+                    mRunLock.wait();
                 } catch (InterruptedException e) {
                     Log.e(TAG, "Interrupted", e);
                 }
             }
+            mSurfaceInUse = mRun;
+            return mRun;
         }
     }
 
-    void setRunning(boolean running) {
-        synchronized (mRunLock) {
-            mRun = running;
+    private void logFirstFrame() {
+        if (mAttachNanos != 0) {
+            Log.i(TAG, "First frame ready " + (System.nanoTime() - mAttachNanos) / 1000 + " us after the surface");
+            mAttachNanos = 0;
         }
     }
 
-    void saveState(Bundle map) {
+    /**
+     * Stop drawing before the surface goes away.
+     */
+    private static void stopRenderThread(RenderThread renderThread) {
+        renderThread.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                renderThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until a frame is requested, the scene is static between rounds.
+     *
+     * @return true if the loop was parked.
+     */
+    private boolean park() {
+        synchronized (mIdleLock) {
+            if (mFrameRequested || !isDrawing()) {
+                return false;
+            }
+            while (!mFrameRequested && isDrawing()) {
+                try {
+                    mIdleLock.wait();
+                } catch (InterruptedException e) {
+                    Log.e(TAG, "Interrupted", e);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Wake the loop up if it is parked, or keep it from parking after the current frame.
+     */
+    private void requestFrame() {
+        synchronized (mIdleLock) {
+            mFrameRequested = true;
+            mIdleLock.notifyAll();
+        }
+    }
+
+    /**
+     * Show or hide the frame timing overlay.
+     */
+    void setFrameStatsOverlay(boolean visible) {
+        mFrameStatsOverlay = visible;
+        requestFrame();
+    }
+
+    boolean isFrameStatsOverlayVisible() {
+        return mFrameStatsOverlay;
+    }
+
+    /**
+     * Log a summary of frame timings from the game thread at the end of the current frame.
+     */
+    void dumpFrameStats() {
+        mDumpFrameStats = true;
+        requestFrame();
+    }
+
+    void resetFrameStats() {
         synchronized (mSurfaceHolder) {
-            map.putFloatArray(KEY_HUMAN_PLAYER_DATA,
-                              new float[]{mHumanPlayer.bounds.left,
-                                          mHumanPlayer.bounds.top,
-                                          mHumanPlayer.score});
+            mFrameStats.reset();
+            mGcCountAtReset = gcCount();
+        }
+    }
 
-            map.putFloatArray(KEY_COMPUTER_PLAYER_DATA,
-                              new float[]{mComputerPlayer.bounds.left,
-                                          mComputerPlayer.bounds.top,
-                                          mComputerPlayer.score});
+    /**
+     * @return the QualityGovernor tier frames are drawn at.
+     */
+    int getQualityTier() {
+        return mQuality.getTier();
+    }
 
-            map.putFloatArray(KEY_BALL_DATA,
-                              new float[]{mBall.cx, mBall.cy, mBall.dx, mBall.dy});
+    /**
+     * Pick up a tier change of the governor, called at the start of a frame.
+     */
+    private void updateQuality() {
+        final int tier = mQuality.getTier();
+        if (tier == mFrameQuality) {
+            return;
+        }
+        Log.i(TAG, "Quality tier " + mFrameQuality + " -> " + tier + " at frame " + mQuality.getLastChangeFrame()
+                   + ", work " + mQuality.getLastWindowMean() / 1000 + " us per frame");
+        final boolean resize = QualityGovernor.resolutionPercent(tier)
+                               != QualityGovernor.resolutionPercent(mFrameQuality);
+        mFrameQuality = tier;
+        // the arena is rendered again
+        mFullRedraw = true;
+        if (resize) {
+            mResolutionHandler.sendEmptyMessage(0);
+        }
+    }
 
-            map.putInt(KEY_GAME_STATE, mState);
+    /**
+     * Record every new game to this file for replay with MatchReplay, null to stop recording.
+     */
+    void setRecordingFile(File file) {
+        synchronized (mSurfaceHolder) {
+            mRecordingFile = file;
+            if (file == null) {
+                stopRecording();
+            }
+        }
+    }
+
+    /**
+     * Append gameplay analytics to this file for TelemetrySummary, null to stop collecting them. A log already open
+     * is closed on the calling thread, which waits for its pending records to be written.
+     */
+    void setTelemetryFile(File file) {
+        synchronized (mSurfaceHolder) {
+            stopTelemetry();
+            if (file == null) {
+                return;
+            }
+            try {
+                mTelemetry = new TelemetryWriter(file, TELEMETRY_FILE_BYTES, TELEMETRY_FILES,
+                                                 TELEMETRY_QUEUE_CAPACITY);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot write telemetry", e);
+            }
+        }
+    }
+
+    /**
+     * @return the level in a raw resource, null if it cannot be read.
+     */
+    private static Level loadLevel(Context context, int id) {
+        Reader in = new InputStreamReader(context.getResources().openRawResource(id));
+        try {
+            return Level.read(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot load level", e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Start drawing on a new surface, the thread is started by the first one.
+     */
+    void attachSurface() {
+        synchronized (mRunLock) {
+            if (!mRun) {
+                return;
+            }
+            mSurfaceReady = true;
+            mAttachNanos = System.nanoTime();
+            mRunLock.notifyAll();
+        }
+        synchronized (mSurfaceHolder) {
+            // the new surface has undefined content
+            mFullRedraw = true;
+        }
+        requestFrame();
+        if (getState() == State.NEW) {
+            start();
+        }
+    }
+
+    /**
+     * Stop drawing, returns once the surface is no longer used and may be destroyed. Game state, paints and
+     * sprites are kept for the next surface.
+     */
+    void detachSurface() {
+        synchronized (mRunLock) {
+            mSurfaceReady = false;
+        }
+        mScheduler.wakeUp();
+        requestFrame();
+        boolean interrupted = false;
+        synchronized (mRunLock) {
+            while (mSurfaceInUse) {
+                try {
+                    mRunLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * End the thread for good and wait for it, when the view goes away.
+     */
+    void quit() {
+        synchronized (mRunLock) {
+            mRun = false;
+            mSurfaceReady = false;
+            mRunLock.notifyAll();
+        }
+        mScheduler.wakeUp();
+        requestFrame();
+        if (getState() == State.NEW) {
+            // never started, nothing but the scheduler and telemetry to release
+            mScheduler.release();
+            synchronized (mSurfaceHolder) {
+                stopTelemetry();
+            }
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void saveState(Bundle map) {
+        synchronized (mSurfaceHolder) {
+            mSnapshot.save(mEngine, mState);
+            map.putByteArray(KEY_SNAPSHOT, mSnapshot.toByteArray());
         }
     }
 
     void restoreState(Bundle map) {
         synchronized (mSurfaceHolder) {
-            float[] humanPlayerData = map.getFloatArray(KEY_HUMAN_PLAYER_DATA);
-            mHumanPlayer.score = (int) humanPlayerData[2];
-            movePlayer(mHumanPlayer, humanPlayerData[0], humanPlayerData[1]);
+            try {
+                mSnapshot.load(map.getByteArray(KEY_SNAPSHOT));
+                applySnapshot();
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Cannot restore game", e);
+                mEngine.resetScore();
+                setState(STATE_READY);
+            }
+        }
+    }
 
-            float[] computerPlayerData = map.getFloatArray(KEY_COMPUTER_PLAYER_DATA);
-            mComputerPlayer.score = (int) computerPlayerData[2];
-            movePlayer(mComputerPlayer, computerPlayerData[0], computerPlayerData[1]);
+    /**
+     * Save the game to a file, e.g. to recover it after the process was killed.
+     */
+    void saveSnapshot(File file) {
+        synchronized (mSurfaceHolder) {
+            mFileSnapshot.save(mEngine, mState);
+        }
+        try {
+            mFileSnapshot.writeTo(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save game", e);
+        }
+    }
 
-            float[] ballData = map.getFloatArray(KEY_BALL_DATA);
-            mBall.cx = ballData[0];
-            mBall.cy = ballData[1];
-            mBall.dx = ballData[2];
-            mBall.dy = ballData[3];
+    /**
+     * @return false if there is no valid saved game in the file.
+     */
+    boolean restoreSnapshot(File file) {
+        try {
+            if (!file.exists() || !mFileSnapshot.readFrom(file)) {
+                return false;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot restore game", e);
+            return false;
+        }
+        synchronized (mSurfaceHolder) {
+            mSnapshot.copyFrom(mFileSnapshot);
+            try {
+                applySnapshot();
+                return true;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Cannot restore game", e);
+                mEngine.resetScore();
+                setState(STATE_READY);
+                return false;
+            }
+        }
+    }
 
-            int state = map.getInt(KEY_GAME_STATE);
-            setState(state);
+    /**
+     * Resume exactly where mSnapshot was taken, without the side effects of setState().
+     */
+    private void applySnapshot() {
+        // restored positions are not in the log, a recording can only restart with the next round
+        stopRecording();
+        mState = mSnapshot.restore(mEngine);
+        mFullRedraw = true;
+        requestFrame();
+        switch (mState) {
+            case STATE_READY:
+                setStatusText(R.string.mode_ready);
+                break;
+            case STATE_RUNNING:
+                setStatusText(STATUS_HIDDEN);
+                break;
+            case STATE_WIN:
+                setStatusText(R.string.mode_win);
+                break;
+            case STATE_LOSE:
+                setStatusText(R.string.mode_lose);
+                break;
+            case STATE_PAUSE:
+                setStatusText(R.string.mode_pause);
+                break;
         }
     }
 
     void setState(int mode) {
         synchronized (mSurfaceHolder) {
             mState = mode;
-            Resources res = mContext.getResources();
+            mFullRedraw = true;
+            requestFrame();
             switch (mState) {
                 case STATE_READY:
-                    setupNewRound();
+                    mEngine.setupNewRound();
+                    resetArena();
+                    clearParticles();
+                    resetRally();
+                    beginRecording();
                     break;
                 case STATE_RUNNING:
-                    hideStatusText();
+                    setStatusText(STATUS_HIDDEN);
                     break;
                 case STATE_WIN:
-                    setStatusText(res.getString(R.string.mode_win));
-                    mHumanPlayer.score++;
-                    setupNewRound();
+                    setStatusText(R.string.mode_win);
+                    mEngine.humanScores();
                     break;
                 case STATE_LOSE:
-                    setStatusText(res.getString(R.string.mode_lose));
-                    mComputerPlayer.score++;
-                    setupNewRound();
+                    setStatusText(R.string.mode_lose);
+                    mEngine.computerScores();
                     break;
                 case STATE_PAUSE:
-                    setStatusText(res.getString(R.string.mode_pause));
+                    setStatusText(R.string.mode_pause);
                     break;
             }
         }
@@ -270,13 +1017,51 @@ public class PongThread extends Thread {
      */
     void startNewGame() {
         synchronized (mSurfaceHolder) {
-            mHumanPlayer.score = 0;
-            mComputerPlayer.score = 0;
-            setupNewRound();
+            mEngine.resetScore();
+            mEngine.setupNewRound();
+            resetArena();
+            clearParticles();
+            resetRally();
+            beginRecording();
+            setState(STATE_RUNNING);
+        }
+    }
+
+    /**
+     * Play against a remote player instead of the computer, the local player drives the paddle of the session
+     * side. Both peers play in the world size.
+     */
+    void startNetworkGame(RollbackSession session) {
+        synchronized (mSurfaceHolder) {
+            stopRecording();
+            stopNetworkGame();
+            mSession = session;
+            mPendingLocalInput = 0;
+            session.start(PongEngine.WORLD_WIDTH, PongEngine.WORLD_HEIGHT);
+            mSpriteGeneration++;
             setState(STATE_RUNNING);
         }
     }
 
+    /**
+     * Back to playing against the computer, from the current state.
+     */
+    void stopNetworkGame() {
+        synchronized (mSurfaceHolder) {
+            if (mSession == null) {
+                return;
+            }
+            try {
+                mSession.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close network game", e);
+            }
+            mSession = null;
+            mEngine.setRemoteOpponent(false);
+            mEngine.setFixedPoint(mFixedPoint);
+        }
+    }
+
     /**
      * @return true if the game is in win, lose or pause state.
      */
@@ -284,211 +1069,458 @@ public class PongThread extends Thread {
         return mState != STATE_RUNNING;
     }
 
-    boolean isTouchOnHumanPaddle(MotionEvent event) {
-        return mHumanPlayer.bounds.contains(event.getX(), event.getY());
+    /**
+     * Queue a touch event for the game thread. Called from the UI thread, never blocks.
+     *
+     * @return false if the event is not one the game reacts to.
+     */
+    boolean queueTouchEvent(MotionEvent event) {
+        int action;
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                action = InputQueue.ACTION_DOWN;
+                break;
+            case MotionEvent.ACTION_MOVE:
+                action = InputQueue.ACTION_MOVE;
+                break;
+            case MotionEvent.ACTION_UP:
+                action = InputQueue.ACTION_UP;
+                break;
+            default:
+                return false;
+        }
+        // event time is on the uptime clock, which is the same monotonic clock as System.nanoTime()
+        mInputQueue.offer(action, event.getX(), event.getY(), event.getEventTime() * 1000000L);
+        requestFrame();
+        return true;
+    }
+
+    /**
+     * Apply queued touch events, called from the game thread with the surface holder lock held.
+     */
+    private void processInput(long now) {
+        final InputQueue queue = mInputQueue;
+        final Viewport viewport = mTouchViewport;
+        while (queue.poll()) {
+            mFrameStats.record(FrameStats.PHASE_INPUT, now - queue.timeNanos);
+            final float x = viewport.toWorldX(queue.x);
+            final float y = viewport.toWorldY(queue.y);
+            switch (queue.action) {
+                case InputQueue.ACTION_DOWN:
+                    if (isBetweenRounds()) {
+                        // resume game
+                        setState(STATE_RUNNING);
+                    } else if (mSession != null
+                               ? mSession.getLocalPlayer().contains(x, y)
+                               : mEngine.isTouchOnHumanPaddle(x, y)) {
+                        mMovingHumanPaddle = true;
+                        mLastTouchY = y;
+                    }
+                    break;
+                case InputQueue.ACTION_MOVE:
+                    if (mMovingHumanPaddle) {
+                        float dy = y - mLastTouchY;
+                        mLastTouchY = y;
+                        moveHumanPaddle(dy);
+                    }
+                    break;
+                case InputQueue.ACTION_UP:
+                    mMovingHumanPaddle = false;
+                    break;
+            }
+        }
     }
 
     void moveHumanPaddle(float dy) {
         synchronized (mSurfaceHolder) {
-            movePlayer(mHumanPlayer,
-                       mHumanPlayer.bounds.left,
-                       mHumanPlayer.bounds.top + dy);
+            if (mSession != null) {
+                // applied with the next tick, in step with the peer
+                mPendingLocalInput += dy;
+                return;
+            }
+            mEngine.moveHumanPaddle(dy);
+            if (mRecorder != null) {
+                mRecorder.move(dy);
+            }
+            requestFrame();
         }
     }
 
+    /**
+     * The surface buffer size changed, the world keeps its size and is drawn scaled to the new one.
+     */
     void setSurfaceSize(int width, int height) {
         synchronized (mSurfaceHolder) {
-            mCanvasWidth = width;
-            mCanvasHeight = height;
-            setupNewRound();
+            mSurfaceViewport.fit(PongEngine.WORLD_WIDTH, PongEngine.WORLD_HEIGHT, width, height);
+            mFullRedraw = true;
+            requestFrame();
         }
     }
 
     /**
-     * Update paddle and player positions, check for collisions, win or lose.
+     * The view size changed, touch events are mapped to the world through it.
      */
-    private void updatePhysics() {
-
-        if (mHumanPlayer.collision > 0) {
-            mHumanPlayer.collision--;
-        }
-        if (mComputerPlayer.collision > 0) {
-            mComputerPlayer.collision--;
+    void setViewSize(int width, int height) {
+        synchronized (mSurfaceHolder) {
+            mTouchViewport.fit(PongEngine.WORLD_WIDTH, PongEngine.WORLD_HEIGHT, width, height);
         }
+    }
+
+    /**
+     * @return height of the surface buffer in pixels at full resolution, 0 to draw at the view resolution.
+     */
+    int getRenderHeight() {
+        return mRenderHeight;
+    }
 
-        if (collision(mHumanPlayer, mBall)) {
-            handleCollision(mHumanPlayer, mBall);
-            mHumanPlayer.collision = PHYS_COLLISION_FRAMES;
-        } else if (collision(mComputerPlayer, mBall)) {
-            handleCollision(mComputerPlayer, mBall);
-            mComputerPlayer.collision = PHYS_COLLISION_FRAMES;
-        } else if (ballCollidedWithTopOrBottomWall()) {
-            mBall.dy = -mBall.dy;
-        } else if (ballCollidedWithRightWall()) {
-            setState(STATE_WIN);    // human plays on left
+    /**
+     * Update paddle and player positions, check for collisions, win or lose.
+     */
+    private void updatePhysics() {
+        if (mSession != null) {
+            try {
+                if (mSession.tick(mPendingLocalInput)) {
+                    mPendingLocalInput = 0;
+                    updateParticles();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Network game failed", e);
+                stopNetworkGame();
+                setState(STATE_PAUSE);
+            }
             return;
-        } else if (ballCollidedWithLeftWall()) {
-            setState(STATE_LOSE);
+        }
+        if (mArena != null) {
+            // balls are served again as soon as they are out, the game goes on until paused
+            mArena.tick();
+            mHumanPlayer.score += mArena.humanPoints;
+            mComputerPlayer.score += mArena.computerPoints;
             return;
         }
-
-        if (mRandomGen.nextFloat() < mComputerMoveProbability) {
-            doAI();
+        if (mRecorder != null) {
+            mRecorder.tick();
+        }
+        int result = mEngine.tick();
+        updateParticles();
+        updateTelemetry(result);
+        switch (result) {
+            case PongEngine.TICK_WIN:
+                setState(STATE_WIN);    // human plays on left
+                break;
+            case PongEngine.TICK_LOSE:
+                setState(STATE_LOSE);
+                break;
         }
-
-        moveBall();
     }
 
-    private void moveBall() {
-        mBall.cx += mBall.dx;
-        mBall.cy += mBall.dy;
+    private void resetArena() {
+        if (mArena != null) {
+            mArena.reset(mArenaBalls);
+        }
+    }
 
-        if (mBall.cy < mBall.radius) {
-            mBall.cy = mBall.radius;
-        } else if (mBall.cy + mBall.radius >= mCanvasHeight) {
-            mBall.cy = mCanvasHeight - mBall.radius - 1;
+    /**
+     * Age the particles and emit new ones for what happened in the tick just run.
+     */
+    private void updateParticles() {
+        final ParticleSystem particles = mParticles;
+        if (particles == null) {
+            return;
+        }
+        particles.tick();
+        final int events = mEngine.getEvents();
+        final Ball ball = mBall;
+        // lower quality tiers emit fewer particles
+        final int tier = mFrameQuality;
+        final int wallSparks = WALL_SPARKS * QualityGovernor.sparkPercent(tier) / 100;
+        final int paddleSparks = PADDLE_SPARKS * QualityGovernor.sparkPercent(tier) / 100;
+        final int trailTicks = TRAIL_TICKS * QualityGovernor.trailPercent(tier) / 100;
+        if ((events & PongEngine.EVENT_WALL) != 0) {
+            float normal = ball.cy < mEngine.getHeight() / 2 ? 1 : -1;
+            particles.sparks(ball.cx, ball.cy - normal * ball.radius, 0, normal, wallSparks);
+        }
+        if ((events & PongEngine.EVENT_HUMAN_PADDLE) != 0) {
+            particles.sparks(ball.cx - ball.radius, ball.cy, 1, 0, paddleSparks);
+        }
+        if ((events & PongEngine.EVENT_COMPUTER_PADDLE) != 0) {
+            particles.sparks(ball.cx + ball.radius, ball.cy, -1, 0, paddleSparks);
+        }
+        if ((events & PongEngine.EVENT_OBSTACLE) != 0) {
+            final ObstacleGrid obstacles = mEngine.getObstacles();
+            particles.sparks(ball.cx - obstacles.nx * ball.radius, ball.cy - obstacles.ny * ball.radius,
+                             obstacles.nx, obstacles.ny, wallSparks);
+        }
+        if (trailTicks > 0) {
+            particles.trail(ball.cx, ball.cy, trailTicks);
         }
     }
 
     /**
-     * Move the computer paddle to hit the ball.
+     * Queue what happened in the tick just run, the writer thread does the rest.
      */
-    private void doAI() {
-        if (mComputerPlayer.bounds.top > mBall.cy) {
-            // move up
-            movePlayer(mComputerPlayer,
-                       mComputerPlayer.bounds.left,
-                       mComputerPlayer.bounds.top - PHYS_PADDLE_SPEED);
-        } else if (mComputerPlayer.bounds.top + mComputerPlayer.paddleHeight < mBall.cy) {
-            // move down
-            movePlayer(mComputerPlayer,
-                       mComputerPlayer.bounds.left,
-                       mComputerPlayer.bounds.top + PHYS_PADDLE_SPEED);
+    private void updateTelemetry(int result) {
+        final TelemetryWriter telemetry = mTelemetry;
+        if (telemetry == null) {
+            return;
+        }
+        mTelemetryTicks++;
+        mRoundTicks++;
+        final int events = mEngine.getEvents();
+        if ((events & (PongEngine.EVENT_HUMAN_PADDLE | PongEngine.EVENT_COMPUTER_PADDLE)) != 0) {
+            mRallyHits++;
+            int player = (events & PongEngine.EVENT_HUMAN_PADDLE) != 0
+                         ? TelemetryWriter.PLAYER_HUMAN : TelemetryWriter.PLAYER_COMPUTER;
+            float speed = (float) Math.sqrt(mBall.dx * mBall.dx + mBall.dy * mBall.dy);
+            telemetry.hit(mTelemetryTicks, player, mEngine.getHitPosition(), speed);
+        }
+        if (result != PongEngine.TICK_PLAY) {
+            int winner = result == PongEngine.TICK_WIN ? TelemetryWriter.PLAYER_HUMAN : TelemetryWriter.PLAYER_COMPUTER;
+            telemetry.point(mTelemetryTicks, winner, mRallyHits, mRoundTicks * PHYS_TICK_NANOS / 1e9f);
+            resetRally();
         }
     }
 
-    private boolean ballCollidedWithLeftWall() {
-        return mBall.cx <= mBall.radius;
+    private void resetRally() {
+        mRallyHits = 0;
+        mRoundTicks = 0;
     }
 
-    private boolean ballCollidedWithRightWall() {
-        return mBall.cx + mBall.radius >= mCanvasWidth - 1;
+    private void stopTelemetry() {
+        if (mTelemetry != null) {
+            try {
+                mTelemetry.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot write telemetry", e);
+            }
+            mTelemetry = null;
+        }
     }
 
-    private boolean ballCollidedWithTopOrBottomWall() {
-        return mBall.cy <= mBall.radius
-               || mBall.cy + mBall.radius >= mCanvasHeight - 1;
+    private void clearParticles() {
+        if (mParticles != null) {
+            mParticles.clear();
+        }
     }
 
     /**
-     * Draws the score, paddles and the ball.
+     * Record the match from the round just set up, replacing the previous recording.
      */
-    private void updateDisplay(Canvas canvas) {
-        canvas.drawColor(Color.BLACK);
-        canvas.drawRect(0, 0, mCanvasWidth, mCanvasHeight, mCanvasBoundsPaint);
+    private void beginRecording() {
+        stopRecording();
+        // the match log only describes single ball games
+        if (mRecordingFile == null || mArena != null || mSession != null) {
+            return;
+        }
+        // closing happens in the background, a failure shows up by the next recording
+        final MatchRecorder previous = mLastRecorder;
+        if (previous != null && previous.getError() != null) {
+            Log.w(TAG, "Cannot record match", previous.getError());
+        }
+        long seed = System.nanoTime();
+        mEngine.setSeed(seed);
+        mRecorder = new MatchRecorder(mRecordingFile, previous);
+        mRecorder.header(seed, mEngine);
+    }
 
-        final int middle = mCanvasWidth / 2;
-        canvas.drawLine(middle, 1, middle, mCanvasHeight - 1, mMedianLinePaint);
+    private void stopRecording() {
+        if (mRecorder != null) {
+            mRecorder.end(mEngine);
+            mLastRecorder = mRecorder;
+            mRecorder = null;
+        }
+    }
 
-        setScoreText(mHumanPlayer.score + "    " + mComputerPlayer.score);
+    /**
+     * Compute the region to repaint for this frame: where moving objects were drawn last frame and where they
+     * will be drawn now.
+     *
+     * @return null to repaint the whole surface.
+     */
+    private Rect computeDirtyRegion(float alpha) {
+        if (!mDirtyRegions || mArena != null) {
+            return null;
+        }
 
-        handleHit(mHumanPlayer);
-        handleHit(mComputerPlayer);
+        mDirtyRegion.setEmpty();
+
+        final float ballX = mBall.lerpX(alpha);
+        final float ballY = mBall.lerpY(alpha);
+        final float ballExtent = mBall.radius + DIRTY_MARGIN;
+        track(mBallDrawn, ballX - ballExtent, ballY - ballExtent, ballX + ballExtent, ballY + ballExtent);
+        trackPaddle(mHumanPaddleDrawn, mHumanPlayer, alpha);
+        trackPaddle(mComputerPaddleDrawn, mComputerPlayer, alpha);
+        final ParticleSystem particles = mParticles;
+        if (particles.left <= particles.right) {
+            final float extent = mBall.radius + DIRTY_MARGIN;
+            track(mParticlesDrawn, particles.left - extent, particles.top - extent,
+                  particles.right + extent, particles.bottom + extent);
+        } else {
+            // nothing to draw, only the old bounds are repainted
+            track(mParticlesDrawn, 0, 0, 0, 0);
+        }
 
-        canvas.drawRoundRect(mHumanPlayer.bounds, 5, 5, mHumanPlayer.paint);
-        canvas.drawRoundRect(mComputerPlayer.bounds, 5, 5, mComputerPlayer.paint);
-        canvas.drawCircle(mBall.cx, mBall.cy, mBall.radius, mBall.paint);
+        if (mFullRedraw || mFrameStatsOverlay) {
+            mFullRedraw = false;
+            return null;
+        }
+        // tracked in world units, locked in surface pixels
+        final Viewport viewport = mSurfaceViewport;
+        final Rect dirty = mDirtyRegion;
+        dirty.set((int) Math.floor(viewport.toPixelX(dirty.left)), (int) Math.floor(viewport.toPixelY(dirty.top)),
+                  (int) Math.ceil(viewport.toPixelX(dirty.right)), (int) Math.ceil(viewport.toPixelY(dirty.bottom)));
+        return dirty;
     }
 
-    private void handleHit(Player player) {
-        if (player.collision > 0) {
-            player.paint.setShadowLayer(player.paddleWidth / 2, 0, 0, player.paint.getColor());
-        } else {
-            player.paint.setShadowLayer(0, 0, 0, 0);
-        }
+    private void trackPaddle(RectF drawn, Player player, float alpha) {
+        // room for the glow shadow too
+        final float margin = player.paddleWidth / 2 + DIRTY_MARGIN;
+        final float left = player.lerpLeft(alpha);
+        final float top = player.lerpTop(alpha);
+        track(drawn, left - margin, top - margin,
+              left + player.paddleWidth + margin, top + player.paddleHeight + margin);
     }
 
     /**
-     * Reset players and ball position for a new round.
+     * Add old and new bounds of an object to the dirty region and remember the new bounds.
      */
-    private void setupNewRound() {
-        mBall.cx = mCanvasWidth / 2;
-        mBall.cy = mCanvasHeight / 2;
-        mBall.dx = -PHYS_BALL_SPEED;
-        mBall.dy = 0;
+    private void track(RectF drawn, float left, float top, float right, float bottom) {
+        mDirtyRegion.union((int) Math.floor(drawn.left), (int) Math.floor(drawn.top),
+                           (int) Math.ceil(drawn.right), (int) Math.ceil(drawn.bottom));
+        drawn.set(left, top, right, bottom);
+        mDirtyRegion.union((int) Math.floor(left), (int) Math.floor(top),
+                           (int) Math.ceil(right), (int) Math.ceil(bottom));
+    }
 
-        movePlayer(mHumanPlayer,
-                   2,
-                   (mCanvasHeight - mHumanPlayer.paddleHeight) / 2);
+    /**
+     * Records the score, paddles, particles and the ball.
+     *
+     * @param alpha position between the previous (0) and current (1) physics tick.
+     */
+    private void recordFrame(DrawList list, float alpha) {
+        list.spriteGeneration = mSpriteGeneration;
+        // the fixed point physics of network games has no obstacles
+        list.obstacles = mEngine.isFixedPoint() ? null : mEngine.getObstacles();
+        list.quality = mFrameQuality;
+        list.viewport.set(mSurfaceViewport);
+        list.background(mEngine.getWidth(), mEngine.getHeight());
+
+        updateScore(list);
+
+        list.paddle(SpriteCache.PADDLE_HUMAN, handleHit(mHumanPlayer),
+                    mHumanPlayer.lerpLeft(alpha), mHumanPlayer.lerpTop(alpha));
+        list.paddle(SpriteCache.PADDLE_COMPUTER, handleHit(mComputerPlayer),
+                    mComputerPlayer.lerpLeft(alpha), mComputerPlayer.lerpTop(alpha));
+        if (mArena != null) {
+            int points = mArena.fillPoints(mArenaPoints, alpha);
+            list.points(PAINT_ARENA_BALL, mArenaPoints, points);
+        } else {
+            recordParticles(list, alpha);
+            list.circle(PAINT_BALL, mBall.lerpX(alpha), mBall.lerpY(alpha), mBall.radius);
+        }
 
-        movePlayer(mComputerPlayer,
-                   mCanvasWidth - mComputerPlayer.paddleWidth - 2,
-                   (mCanvasHeight - mComputerPlayer.paddleHeight) / 2);
+        if (mFrameStatsOverlay) {
+            recordFrameStats(list);
+        }
     }
 
-    private void setStatusText(String text) {
-        Message msg = mStatusHandler.obtainMessage();
-        Bundle b = new Bundle();
-        b.putString("text", text);
-        b.putInt("vis", View.VISIBLE);
-        msg.setData(b);
-        mStatusHandler.sendMessage(msg);
+    /**
+     * One points call per particle kind and fade level.
+     */
+    private void recordParticles(DrawList list, float alpha) {
+        mParticles.fill(mParticlePoints, alpha);
+        final int[] start = mParticles.groupStart;
+        for (int g = 0; g < ParticleSystem.GROUPS; g++) {
+            final int count = start[g + 1] - start[g];
+            if (count > 0) {
+                list.points(PAINT_PARTICLE + g, mParticlePoints, start[g], count);
+            }
+        }
     }
 
-    private void hideStatusText() {
-        Message msg = mStatusHandler.obtainMessage();
-        Bundle b = new Bundle();
-        b.putInt("vis", View.INVISIBLE);
-        msg.setData(b);
-        mStatusHandler.sendMessage(msg);
+    private void recordFrameStats(DrawList list) {
+        // percentiles are recomputed a few times per second, not every frame
+        if (mFrameStatsAge-- <= 0) {
+            mFrameStatsAge = FRAME_STATS_REFRESH_FRAMES;
+            for (int phase = 0; phase < FrameStats.PHASE_COUNT; phase++) {
+                mFrameStatsLengths[phase] = mFrameStats.formatPhase(phase, mFrameStatsLines[phase]);
+            }
+            mFrameStatsLengths[FrameStats.PHASE_COUNT] =
+                    mFrameStats.formatMissed(mFrameStatsLines[FrameStats.PHASE_COUNT]);
+        }
+        final float lineHeight = mFrameStatsPaint.getTextSize() * 1.2f;
+        float y = lineHeight;
+        for (int i = 0; i < mFrameStatsLines.length; i++) {
+            list.text(PAINT_FRAME_STATS, mFrameStatsLines[i], mFrameStatsLengths[i], lineHeight, y);
+            y += lineHeight;
+        }
     }
 
-    private void setScoreText(String text) {
-        Message msg = mScoreHandler.obtainMessage();
-        Bundle b = new Bundle();
-        b.putString("text", text);
-        msg.setData(b);
-        mScoreHandler.sendMessage(msg);
+    private int gcCountSinceReset() {
+        int count = gcCount();
+        return count < 0 || mGcCountAtReset < 0 ? -1 : count - mGcCountAtReset;
     }
 
-    private void movePlayer(Player player, float left, float top) {
-        if (left < 2) {
-            left = 2;
-        } else if (left + player.paddleWidth >= mCanvasWidth - 2) {
-            left = mCanvasWidth - player.paddleWidth - 2;
+    /**
+     * @return number of garbage collections so far, -1 if the runtime does not tell (before Marshmallow).
+     */
+    private static int gcCount() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        String count = Debug.getRuntimeStat("art.gc.gc-count");
+        if (count == null) {
+            return -1;
         }
-        if (top < 0) {
-            top = 0;
-        } else if (top + player.paddleHeight >= mCanvasHeight) {
-            top = mCanvasHeight - player.paddleHeight - 1;
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        player.bounds.offsetTo(left, top);
     }
 
-    private boolean collision(Player player, Ball ball) {
-        return player.bounds.intersects(
-                ball.cx - mBall.radius,
-                ball.cy - mBall.radius,
-                ball.cx + mBall.radius,
-                ball.cy + mBall.radius);
+    /**
+     * @return true if the paddle glows because it just hit the ball.
+     */
+    private boolean handleHit(Player player) {
+        return player.collision > 0 && QualityGovernor.glow(mFrameQuality);
     }
 
     /**
-     * Compute ball direction after collision with player paddle.
+     * Publish the status to the UI thread if it changed.
+     *
+     * @param resId text resource id or STATUS_HIDDEN.
      */
-    private void handleCollision(Player player, Ball ball) {
-        float relativeIntersectY = player.bounds.top + player.paddleHeight / 2 - ball.cy;
-        float normalizedRelativeIntersectY = relativeIntersectY / (player.paddleHeight / 2);
-        double bounceAngle = normalizedRelativeIntersectY * PHYS_MAX_BOUNCE_ANGLE;
-
-        ball.dx = (float) (-Math.signum(ball.dx) * PHYS_BALL_SPEED * Math.cos(bounceAngle));
-        ball.dy = (float) (PHYS_BALL_SPEED * -Math.sin(bounceAngle));
+    private void setStatusText(int resId) {
+        if (resId != mShownStatus) {
+            mShownStatus = resId;
+            mStatusHandler.sendMessage(mStatusHandler.obtainMessage(
+                    0, resId == STATUS_HIDDEN ? View.INVISIBLE : View.VISIBLE, resId));
+        }
+    }
 
-        if (player == mHumanPlayer) {
-            mBall.cx = mHumanPlayer.bounds.right + mBall.radius;
-        } else {
-            mBall.cx = mComputerPlayer.bounds.left - mBall.radius;
+    /**
+     * Record the score on the surface or publish it to the UI thread if it changed.
+     */
+    private void updateScore(DrawList list) {
+        final int humanScore = mHumanPlayer.score;
+        final int computerScore = mComputerPlayer.score;
+        final boolean changed = humanScore != mShownHumanScore || computerScore != mShownComputerScore;
+        if (changed) {
+            mShownHumanScore = humanScore;
+            mShownComputerScore = computerScore;
+        }
+        if (mScoreOnSurface) {
+            if (changed) {
+                mScoreText.set(humanScore, computerScore);
+            }
+            list.text(PAINT_SCORE, mScoreText.chars, mScoreText.length, mEngine.getWidth() / 2, SCORE_TOP);
+        } else if (changed) {
+            mScoreHandler.sendMessage(mScoreHandler.obtainMessage(0, humanScore, computerScore));
         }
     }
 
+    boolean isScoreOnSurface() {
+        return mScoreOnSurface;
+    }
+
 }
@@ -7,6 +7,7 @@ import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.View;
 import android.widget.TextView;
 
 /**
@@ -20,6 +21,8 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback {
 
     private TextView mScoreView;
 
+    private final ScoreText mScoreText = new ScoreText();
+
     public PongView(Context context, AttributeSet attributeSet) {
         super(context, attributeSet);
 
@@ -30,14 +33,23 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback {
                 new Handler() {
                     @Override
                     public void handleMessage(Message m) {
-                        mStatusView.setVisibility(m.getData().getInt("vis"));
-                        mStatusView.setText(m.getData().getString("text"));
+                        mStatusView.setVisibility(m.arg1);
+                        if (m.arg2 != PongThread.STATUS_HIDDEN) {
+                            mStatusView.setText(m.arg2);
+                        }
+                    }
+                },
+                new Handler() {
+                    @Override
+                    public void handleMessage(Message m) {
+                        mScoreText.set(m.arg1, m.arg2);
+                        mScoreView.setText(mScoreText.chars, 0, mScoreText.length);
                     }
                 },
                 new Handler() {
                     @Override
                     public void handleMessage(Message m) {
-                        mScoreView.setText(m.getData().getString("text"));
+                        updateBufferSize();
                     }
                 },
                 attributeSet
@@ -52,6 +64,9 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback {
 
     public void setScoreView(TextView textView) {
         mScoreView = textView;
+        if (mGameThread.isScoreOnSurface()) {
+            mScoreView.setVisibility(View.GONE);
+        }
     }
 
     @Override
@@ -61,6 +76,36 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback {
         }
     }
 
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        mGameThread.setViewSize(width, height);
+        updateBufferSize();
+    }
+
+    /**
+     * Size the surface buffer for the render height and the current quality tier. A buffer smaller than the view
+     * is scaled up by the compositor, which is much cheaper than filling every pixel of a large screen.
+     */
+    private void updateBufferSize() {
+        final int width = getWidth();
+        final int height = getHeight();
+        if (width == 0 || height == 0) {
+            return;
+        }
+        int bufferHeight = mGameThread.getRenderHeight();
+        if (bufferHeight <= 0 || bufferHeight > height) {
+            bufferHeight = height;
+        }
+        bufferHeight = bufferHeight * QualityGovernor.resolutionPercent(mGameThread.getQualityTier()) / 100;
+        if (bufferHeight == height) {
+            getHolder().setSizeFromLayout();
+        } else {
+            // same aspect ratio as the view, so the compositor scales without stretching
+            getHolder().setFixedSize(Math.round((float) width * bufferHeight / height), bufferHeight);
+        }
+    }
+
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
         mGameThread.setSurfaceSize(width, height);
@@ -68,54 +113,25 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback {
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        mGameThread.setRunning(true);
-        mGameThread.start();
+        mGameThread.attachSurface();
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
-        boolean retry = true;
-        mGameThread.setRunning(false);
-        while (retry) {
-            try {
-                mGameThread.join();
-                retry = false;
-            } catch (InterruptedException e) {
-                // don't care
-            }
-        }
+        // the game thread waits for the next surface, e.g. when coming back from the background
+        mGameThread.detachSurface();
     }
 
-    private boolean moving;
-    private float   mLastTouchY;
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mGameThread.quit();
+    }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        switch (event.getAction()) {
-            case MotionEvent.ACTION_DOWN:
-                if (mGameThread.isBetweenRounds()) {
-                    // resume game
-                    mGameThread.setState(PongThread.STATE_RUNNING);
-                } else {
-                    if (mGameThread.isTouchOnHumanPaddle(event)) {
-                        moving = true;
-                        mLastTouchY = event.getY();
-                    }
-                }
-                break;
-            case MotionEvent.ACTION_MOVE:
-                if (moving) {
-                    float y = event.getY();
-                    float dy = y - mLastTouchY;
-                    mLastTouchY = y;
-
-                    mGameThread.moveHumanPaddle(dy);
-                }
-                break;
-            case MotionEvent.ACTION_UP:
-                moving = false;
-                break;
-        }
+        // handled on the game thread, the UI thread never waits for a frame to finish
+        mGameThread.queueTouchEvent(event);
         return true;
     }
 
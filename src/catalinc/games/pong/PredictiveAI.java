@@ -0,0 +1,154 @@
+package catalinc.games.pong;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Computer player that predicts where the ball will cross its paddle.
+ * <p/>
+ * Wall reflections are folded in closed form, so the intercept is computed once each time the ball velocity
+ * changes and the per-tick cost is a comparison and a paddle move. Difficulty comes from the reaction delay,
+ * the prediction error and the paddle speed.
+ */
+class PredictiveAI {
+
+    static final int DIFFICULTY_EASY   = 0;
+    static final int DIFFICULTY_MEDIUM = 1;
+    static final int DIFFICULTY_HARD   = 2;
+
+    /**
+     * Ticks before the paddle reacts once the ball heads towards it.
+     */
+    private static final int[]   REACTION_TICKS   = {18, 10, 3};
+    /**
+     * Maximum aiming error as a fraction of half the paddle height, above 1 the paddle can miss.
+     */
+    private static final float[] PREDICTION_ERROR = {1.3f, 0.7f, 0.2f};
+    /**
+     * Paddle speed in world units per tick.
+     */
+    private static final float[] PADDLE_SPEED     = {5, 7, 10};
+
+    /**
+     * Size in bytes of the state written by writeState().
+     */
+    static final int STATE_SIZE = 20;
+
+    private final PongEngine mEngine;
+    private final Random     mRandom;
+
+    private int mDifficulty;
+
+    /**
+     * Ball velocity the current target was computed for.
+     */
+    private float mSeenDx;
+    private float mSeenDy;
+
+    private float mTargetY;
+    private float mError;
+    private int   mDelay;
+
+    PredictiveAI(PongEngine engine, Random random) {
+        mEngine = engine;
+        mRandom = random;
+        mDifficulty = DIFFICULTY_MEDIUM;
+        reset();
+    }
+
+    void setDifficulty(int difficulty) {
+        mDifficulty = difficulty;
+    }
+
+    int getDifficulty() {
+        return mDifficulty;
+    }
+
+    /**
+     * Forget the current prediction, e.g. after a new round was set up.
+     */
+    void reset() {
+        mSeenDx = Float.NaN;
+        mSeenDy = Float.NaN;
+        mDelay = 0;
+        mError = 0;
+    }
+
+    void writeState(ByteBuffer b) {
+        b.putFloat(mSeenDx);
+        b.putFloat(mSeenDy);
+        b.putFloat(mTargetY);
+        b.putFloat(mError);
+        b.putInt(mDelay);
+    }
+
+    void readState(ByteBuffer b) {
+        mSeenDx = b.getFloat();
+        mSeenDy = b.getFloat();
+        mTargetY = b.getFloat();
+        mError = b.getFloat();
+        mDelay = b.getInt();
+    }
+
+    /**
+     * Move the paddle one tick towards the predicted intercept.
+     */
+    void update(Player player, Ball ball) {
+        if (ball.dx != mSeenDx || ball.dy != mSeenDy) {
+            if (ball.dx > 0 && !(mSeenDx > 0)) {
+                // ball just turned towards us: take time to react and decide how well to aim
+                mDelay = REACTION_TICKS[mDifficulty];
+                mError = (mRandom.nextFloat() * 2 - 1) * PREDICTION_ERROR[mDifficulty] * player.paddleHeight / 2;
+            }
+            mSeenDx = ball.dx;
+            mSeenDy = ball.dy;
+            mTargetY = predict(player, ball) + mError;
+        }
+
+        if (mDelay > 0) {
+            mDelay--;
+            return;
+        }
+
+        final float speed = PADDLE_SPEED[mDifficulty];
+        final float center = player.top + player.paddleHeight / 2;
+        final float distance = mTargetY - center;
+        if (distance > speed) {
+            mEngine.movePlayer(player, player.left, player.top + speed);
+        } else if (distance < -speed) {
+            mEngine.movePlayer(player, player.left, player.top - speed);
+        } else if (distance != 0) {
+            mEngine.movePlayer(player, player.left, player.top + distance);
+        }
+    }
+
+    /**
+     * @return y where the ball center reaches the paddle face, or the middle of the court if the ball moves away.
+     */
+    private float predict(Player player, Ball ball) {
+        final int height = mEngine.getHeight();
+        if (ball.dx <= 0) {
+            // wait in the middle for the return
+            return height / 2;
+        }
+
+        final float r = ball.radius;
+        final float t = (player.left - r - ball.cx) / ball.dx;
+        final float unfolded = ball.cy + ball.dy * t;
+
+        // the ball center bounces between r and height - 1 - r, fold the straight line into that band
+        final float span = height - 1 - 2 * r;
+        if (span <= 0) {
+            return ball.cy;
+        }
+        float m = (unfolded - r) % (2 * span);
+        if (m < 0) {
+            m += 2 * span;
+        }
+        if (m > span) {
+            m = 2 * span - m;
+        }
+        return r + m;
+    }
+
+}
@@ -0,0 +1,231 @@
+package catalinc.games.pong;
+
+/**
+ * Picks a rendering quality tier from the measured work time of frames.
+ * <p/>
+ * Frame work times are averaged over windows of WINDOW_FRAMES frames, leaving out the slowest frame of each window
+ * so that a single spike is not taken for a trend. A window over the downgrade load, or with too many frames past
+ * the budget, drops one tier at once. Going up takes several calm windows in a row at a much
+ * lower load, the gap between both thresholds covers the extra cost of the tier above. An upgrade undone by the
+ * next windows doubles the number of calm windows needed before trying it again, so a device on the edge of a tier
+ * settles below it instead of switching back and forth.
+ * <p/>
+ * frame() is called by the thread that draws, getTier() may be read from any thread.
+ */
+class QualityGovernor {
+
+    /**
+     * Half the resolution, no anti-aliasing, solid median line, a quarter of the sparks and no ball trail.
+     */
+    static final int TIER_LOW    = 0;
+    /**
+     * Three quarters of the resolution, no anti-aliasing, solid median line, half the sparks and a short ball trail.
+     */
+    static final int TIER_MEDIUM = 1;
+    /**
+     * Everything but the paddle glow.
+     */
+    static final int TIER_HIGH   = 2;
+    static final int TIER_FULL   = 3;
+    static final int TIER_COUNT  = 4;
+
+    private static final boolean[] ANTI_ALIAS         = {false, false, true, true};
+    private static final boolean[] DASHED_MEDIAN      = {false, false, true, true};
+    private static final boolean[] GLOW               = {false, false, false, true};
+    private static final int[]     SPARK_PERCENT      = {25, 50, 100, 100};
+    private static final int[]     TRAIL_PERCENT      = {0, 50, 100, 100};
+    private static final int[]     RESOLUTION_PERCENT = {50, 75, 100, 100};
+
+    static final int WINDOW_FRAMES = 30;
+
+    /**
+     * Loads as a fraction of the budget: above DOWNGRADE_LOAD drops a tier, below UPGRADE_LOAD counts as calm.
+     */
+    private static final float DOWNGRADE_LOAD = 0.75f;
+    private static final float UPGRADE_LOAD   = 0.4f;
+    /**
+     * A window with this many frames past the budget drops a tier whatever its average, single spikes do not.
+     */
+    private static final int   MAX_LATE       = WINDOW_FRAMES / 8;
+
+    private static final int MIN_CALM_WINDOWS = 4;
+    private static final int MAX_CALM_WINDOWS = 64;
+    /**
+     * A downgrade within this many windows of an upgrade undoes it.
+     */
+    private static final int TRIAL_WINDOWS    = 2;
+
+    private final long mBudgetNanos;
+
+    private volatile int mTier;
+
+    private long mWindowNanos;
+    private long mWindowMax;
+    private int  mWindowFrames;
+    private int  mWindowLate;
+    private long mLastWindowMean;
+
+    private int     mCalmWindows;
+    private int     mCalmWindowsNeeded;
+    private int     mWindowsSinceUpgrade;
+    private boolean mTrial;
+
+    private long mFrames;
+    private long mUpgrades;
+    private long mDowngrades;
+    private long mLastChangeFrame;
+
+    /**
+     * @param budgetNanos frame deadline, work taking longer than that misses the frame.
+     */
+    QualityGovernor(long budgetNanos, int tier) {
+        mBudgetNanos = budgetNanos;
+        mTier = tier;
+        mCalmWindowsNeeded = MIN_CALM_WINDOWS;
+    }
+
+    /**
+     * Account for the work of one frame, from the start of the frame until it is posted.
+     *
+     * @return true if the tier changed.
+     */
+    boolean frame(long workNanos) {
+        mFrames++;
+        mWindowNanos += workNanos;
+        mWindowMax = Math.max(mWindowMax, workNanos);
+        if (workNanos > mBudgetNanos) {
+            mWindowLate++;
+        }
+        if (++mWindowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+        final long mean = (mWindowNanos - mWindowMax) / (mWindowFrames - 1);
+        final boolean late = mWindowLate >= MAX_LATE;
+        mLastWindowMean = mean;
+        restartWindow();
+        mWindowsSinceUpgrade++;
+
+        if (mean > DOWNGRADE_LOAD * mBudgetNanos || late) {
+            mCalmWindows = 0;
+            if (mTrial && mWindowsSinceUpgrade <= TRIAL_WINDOWS) {
+                mCalmWindowsNeeded = Math.min(2 * mCalmWindowsNeeded, MAX_CALM_WINDOWS);
+            }
+            mTrial = false;
+            if (mTier > TIER_LOW) {
+                setTier(mTier - 1);
+                mDowngrades++;
+                return true;
+            }
+            return false;
+        }
+        if (mTrial && mWindowsSinceUpgrade > TRIAL_WINDOWS) {
+            // the upgrade held, the next one may be tried as soon as the first
+            mTrial = false;
+            mCalmWindowsNeeded = MIN_CALM_WINDOWS;
+        }
+        if (mean < UPGRADE_LOAD * mBudgetNanos) {
+            if (++mCalmWindows >= mCalmWindowsNeeded && mTier < TIER_FULL) {
+                mCalmWindows = 0;
+                mWindowsSinceUpgrade = 0;
+                mTrial = true;
+                setTier(mTier + 1);
+                mUpgrades++;
+                return true;
+            }
+        } else {
+            mCalmWindows = 0;
+        }
+        return false;
+    }
+
+    private void setTier(int tier) {
+        mTier = tier;
+        mLastChangeFrame = mFrames;
+    }
+
+    private void restartWindow() {
+        mWindowNanos = 0;
+        mWindowMax = 0;
+        mWindowFrames = 0;
+        mWindowLate = 0;
+    }
+
+    /**
+     * Forget the current window, e.g. when frames stop for a while and the next ones start cold.
+     */
+    void resetWindow() {
+        restartWindow();
+        mCalmWindows = 0;
+    }
+
+    int getTier() {
+        return mTier;
+    }
+
+    long getFrames() {
+        return mFrames;
+    }
+
+    long getUpgrades() {
+        return mUpgrades;
+    }
+
+    long getDowngrades() {
+        return mDowngrades;
+    }
+
+    /**
+     * @return frame count when the tier last changed, 0 if it never did.
+     */
+    long getLastChangeFrame() {
+        return mLastChangeFrame;
+    }
+
+    /**
+     * @return average work time of the last complete window.
+     */
+    long getLastWindowMean() {
+        return mLastWindowMean;
+    }
+
+    /**
+     * @return number of calm windows needed before the next upgrade.
+     */
+    int getCalmWindowsNeeded() {
+        return mCalmWindowsNeeded;
+    }
+
+    static boolean antiAlias(int tier) {
+        return ANTI_ALIAS[tier];
+    }
+
+    static boolean dashedMedian(int tier) {
+        return DASHED_MEDIAN[tier];
+    }
+
+    static boolean glow(int tier) {
+        return GLOW[tier];
+    }
+
+    /**
+     * @return share of the sparks of a hit that are emitted.
+     */
+    static int sparkPercent(int tier) {
+        return SPARK_PERCENT[tier];
+    }
+
+    /**
+     * @return length of the ball trail relative to the full one.
+     */
+    static int trailPercent(int tier) {
+        return TRAIL_PERCENT[tier];
+    }
+
+    /**
+     * @return height of the surface buffer relative to the full resolution one.
+     */
+    static int resolutionPercent(int tier) {
+        return RESOLUTION_PERCENT[tier];
+    }
+
+}
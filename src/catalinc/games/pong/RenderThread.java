@@ -0,0 +1,92 @@
+package catalinc.games.pong;
+
+import android.graphics.Canvas;
+import android.view.SurfaceHolder;
+
+/**
+ * Draws the newest frame recorded by the game thread, so that drawing a frame overlaps simulating the next one.
+ */
+class RenderThread extends Thread {
+
+    /**
+     * Wait before trying again when the surface cannot be locked yet.
+     */
+    private static final long RETRY_MILLIS = 5;
+
+    private final SurfaceHolder    mSurfaceHolder;
+    private final DrawListBuffer   mBuffer;
+    private final DrawListRenderer mRenderer;
+    /**
+     * Only the lock, draw and post phases are recorded from this thread, the game thread records the others.
+     */
+    private final FrameStats       mFrameStats;
+    /**
+     * Fed with the work time of the frames drawn here, null when the quality is fixed.
+     */
+    private final QualityGovernor  mQuality;
+
+    private volatile boolean mRunning;
+
+    RenderThread(SurfaceHolder surfaceHolder, DrawListBuffer buffer, DrawListRenderer renderer,
+                 FrameStats frameStats, QualityGovernor quality) {
+        super("PongRender");
+        mSurfaceHolder = surfaceHolder;
+        mBuffer = buffer;
+        mRenderer = renderer;
+        mFrameStats = frameStats;
+        mQuality = quality;
+        mRunning = true;
+        buffer.open();
+    }
+
+    /**
+     * Stop after the current frame, call join() to wait for it.
+     */
+    void shutdown() {
+        mRunning = false;
+        mBuffer.close();
+    }
+
+    @Override
+    public void run() {
+        final FrameStats stats = mFrameStats;
+        DrawList pending = null;
+        while (mRunning) {
+            // a frame that could not be drawn yet is kept until a newer one replaces it
+            DrawList next = pending == null ? mBuffer.await() : mBuffer.poll();
+            if (next != null) {
+                pending = next;
+            }
+            if (pending == null) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            Canvas c = mSurfaceHolder.lockCanvas();
+            long locked = System.nanoTime();
+            stats.record(FrameStats.PHASE_LOCK, locked - start);
+            if (c == null) {
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    // check mRunning
+                }
+                continue;
+            }
+            try {
+                mRenderer.draw(c, pending);
+                pending = null;
+            } finally {
+                long posting = System.nanoTime();
+                stats.record(FrameStats.PHASE_DRAW, posting - locked);
+                mSurfaceHolder.unlockCanvasAndPost(c);
+                long posted = System.nanoTime();
+                stats.record(FrameStats.PHASE_POST, posted - posting);
+                if (mQuality != null) {
+                    mQuality.frame(posted - start);
+                }
+            }
+        }
+    }
+
+}
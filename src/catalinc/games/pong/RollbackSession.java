@@ -0,0 +1,323 @@
+package catalinc.games.pong;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Two player game over the network with rollback.
+ * <p/>
+ * Both peers run the same deterministic simulation from the same start. The local paddle input of a tick is
+ * applied at once, the remote one is predicted to be the last one received. When the real remote input of an
+ * already simulated tick arrives and differs from the prediction, the engine state saved before that tick is
+ * restored and the ticks since are run again. The simulation runs at most a rollback window of ticks ahead of
+ * the last confirmed remote input, then it stalls until more input arrives.
+ * <p/>
+ * Every packet carries all local inputs the peer has not acknowledged yet, so a lost packet is covered by the
+ * next one. The left peer drives the human paddle, the right peer the computer paddle.
+ */
+class RollbackSession {
+
+    static final int SIDE_LEFT  = 0;
+    static final int SIDE_RIGHT = 1;
+
+    private static final int MAGIC = 0x504f4e4e; // "PONN"
+
+    /**
+     * Inputs kept per player, must be a power of two well above the rollback window.
+     */
+    private static final int RING      = 256;
+    private static final int RING_MASK = RING - 1;
+
+    private static final int MAX_INPUTS_PER_PACKET = (UdpTransport.MAX_PACKET - 13) / 4;
+
+    private final PongEngine   mEngine;
+    private final UdpTransport mTransport;
+    private final int          mSide;
+    private final int          mWindow;
+
+    private final float[] mLocalInputs;
+    private final float[] mRemoteInputs;
+    /**
+     * Frame whose remote input is stored in each slot, to tell received inputs from stale ones.
+     */
+    private final int[]   mRemoteFrames;
+    /**
+     * Remote input each simulated frame was run with, real or predicted.
+     */
+    private final float[] mUsedRemoteInputs;
+
+    /**
+     * Engine state before each of the last window + 1 frames.
+     */
+    private final ByteBuffer[] mStates;
+
+    private final ByteBuffer mPacket;
+
+    /**
+     * Next frame to simulate.
+     */
+    private int mFrame;
+    /**
+     * Last frame up to which all remote inputs are known.
+     */
+    private int mConfirmed;
+    /**
+     * Last frame up to which the peer has all our inputs.
+     */
+    private int mAcked;
+    /**
+     * Earliest frame simulated with a wrong prediction, mFrame if none.
+     */
+    private int mRollbackFrom;
+
+    private long                   mRollbacks;
+    private long                   mResimulatedTicks;
+    private long                   mStalls;
+    private final LatencyHistogram mResimulationCost;
+
+    /**
+     * @param window maximum number of ticks simulated with predicted remote input.
+     */
+    RollbackSession(PongEngine engine, UdpTransport transport, int side, int window) {
+        if (window < 1 || window > RING / 4) {
+            throw new IllegalArgumentException("Bad rollback window " + window);
+        }
+        mEngine = engine;
+        mTransport = transport;
+        mSide = side;
+        mWindow = window;
+        mLocalInputs = new float[RING];
+        mRemoteInputs = new float[RING];
+        mRemoteFrames = new int[RING];
+        mUsedRemoteInputs = new float[RING];
+        mStates = new ByteBuffer[window + 1];
+        for (int i = 0; i < mStates.length; i++) {
+            mStates[i] = ByteBuffer.allocate(PongEngine.STATE_SIZE);
+        }
+        mPacket = ByteBuffer.allocate(UdpTransport.MAX_PACKET);
+        mResimulationCost = new LatencyHistogram();
+    }
+
+    /**
+     * Set up the first round, both peers must call this with the same arena size.
+     */
+    void start(int width, int height) {
+        mEngine.setRemoteOpponent(true);
+        // the peers may run on different hardware, only the fixed point physics stays in sync there
+        mEngine.setFixedPoint(true);
+        mEngine.setSize(width, height);
+        mEngine.resetScore();
+        mEngine.setupNewRound();
+        for (int i = 0; i < RING; i++) {
+            mRemoteFrames[i] = -1;
+        }
+        mFrame = 0;
+        mConfirmed = -1;
+        mAcked = -1;
+        mRollbackFrom = 0;
+    }
+
+    /**
+     * Exchange inputs and advance one tick.
+     *
+     * @param localInput local paddle move for this tick.
+     * @return false if the simulation stalled waiting for the peer, the input was not used.
+     */
+    boolean tick(float localInput) throws IOException {
+        receive();
+        rollback();
+
+        boolean advanced = false;
+        if (mFrame - mConfirmed - 1 < mWindow) {
+            mLocalInputs[mFrame & RING_MASK] = localInput;
+            simulate(mFrame);
+            mFrame++;
+            mRollbackFrom = mFrame;
+            advanced = true;
+        } else {
+            mStalls++;
+        }
+        send();
+        return advanced;
+    }
+
+    /**
+     * Keep exchanging inputs without advancing until both peers have every input of the simulated frames, then
+     * correct the last predictions. Both peers end in the same state.
+     *
+     * @return false if the peer did not catch up in time.
+     */
+    boolean finish(long timeoutNanos) throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (mConfirmed < mFrame - 1 || mAcked < mFrame - 1) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            receive();
+            send();
+            Thread.sleep(1);
+        }
+        rollback();
+        // the peer may still miss our acknowledgement, keep answering for a while
+        final long linger = System.nanoTime() + 200000000L;
+        while (System.nanoTime() - linger < 0) {
+            receive();
+            send();
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    void close() throws IOException {
+        mTransport.close();
+    }
+
+    /**
+     * @return the paddle controlled on this device.
+     */
+    Player getLocalPlayer() {
+        return mSide == SIDE_LEFT ? mEngine.mHumanPlayer : mEngine.mComputerPlayer;
+    }
+
+    int getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * @return how many ticks the simulation runs ahead of the confirmed remote input.
+     */
+    int getPredictedTicks() {
+        return mFrame - mConfirmed - 1;
+    }
+
+    long getRollbacks() {
+        return mRollbacks;
+    }
+
+    long getResimulatedTicks() {
+        return mResimulatedTicks;
+    }
+
+    long getStalls() {
+        return mStalls;
+    }
+
+    /**
+     * @return time spent re-simulating per rollback, in microseconds.
+     */
+    LatencyHistogram getResimulationCost() {
+        return mResimulationCost;
+    }
+
+    private void simulate(int frame) {
+        final int slot = frame & RING_MASK;
+        ByteBuffer state = mStates[frame % mStates.length];
+        state.clear();
+        mEngine.writeState(state);
+
+        float remote;
+        if (mRemoteFrames[slot] == frame) {
+            remote = mRemoteInputs[slot];
+        } else if (mConfirmed >= 0) {
+            remote = mRemoteInputs[mConfirmed & RING_MASK];
+        } else {
+            remote = 0;
+        }
+        mUsedRemoteInputs[slot] = remote;
+
+        final float local = mLocalInputs[slot];
+        if (mSide == SIDE_LEFT) {
+            mEngine.moveHumanPaddle(local);
+            mEngine.moveComputerPaddle(remote);
+        } else {
+            mEngine.moveHumanPaddle(remote);
+            mEngine.moveComputerPaddle(local);
+        }
+        switch (mEngine.tick()) {
+            case PongEngine.TICK_WIN:
+                mEngine.humanScores();
+                break;
+            case PongEngine.TICK_LOSE:
+                mEngine.computerScores();
+                break;
+        }
+    }
+
+    /**
+     * Go back to the first mispredicted frame and run again up to the current one.
+     */
+    private void rollback() {
+        if (mRollbackFrom >= mFrame) {
+            return;
+        }
+        final long start = System.nanoTime();
+        ByteBuffer state = mStates[mRollbackFrom % mStates.length];
+        state.clear();
+        mEngine.readState(state);
+        for (int frame = mRollbackFrom; frame < mFrame; frame++) {
+            simulate(frame);
+            mResimulatedTicks++;
+        }
+        mRollbacks++;
+        mResimulationCost.record((System.nanoTime() - start) / 1000);
+        mRollbackFrom = mFrame;
+    }
+
+    private void receive() throws IOException {
+        final ByteBuffer b = mPacket;
+        while (mTransport.receive(b)) {
+            if (b.remaining() < 13 || b.getInt() != MAGIC) {
+                continue;
+            }
+            int ack = b.getInt();
+            if (ack > mAcked) {
+                mAcked = ack;
+            }
+            int first = b.getInt();
+            int count = b.get() & 0xff;
+            if (b.remaining() < count * 4) {
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                storeRemoteInput(first + i, b.getFloat());
+            }
+        }
+    }
+
+    private void storeRemoteInput(int frame, float input) {
+        // the peer never runs more than a window ahead of our acknowledgement
+        if (frame <= mConfirmed || frame > mConfirmed + RING / 2) {
+            return;
+        }
+        final int slot = frame & RING_MASK;
+        if (mRemoteFrames[slot] == frame) {
+            return;
+        }
+        mRemoteInputs[slot] = input;
+        mRemoteFrames[slot] = frame;
+        if (frame < mFrame && frame < mRollbackFrom
+            && Float.floatToRawIntBits(input) != Float.floatToRawIntBits(mUsedRemoteInputs[slot])) {
+            mRollbackFrom = frame;
+        }
+        while (mRemoteFrames[(mConfirmed + 1) & RING_MASK] == mConfirmed + 1) {
+            mConfirmed++;
+        }
+    }
+
+    private void send() throws IOException {
+        final int first = mAcked + 1;
+        final int count = Math.min(mFrame - first, MAX_INPUTS_PER_PACKET);
+        final ByteBuffer b = mPacket;
+        b.clear();
+        b.putInt(MAGIC);
+        b.putInt(mConfirmed);
+        b.putInt(first);
+        b.put((byte) count);
+        for (int i = 0; i < count; i++) {
+            b.putFloat(mLocalInputs[(first + i) & RING_MASK]);
+        }
+        b.flip();
+        mTransport.send(b);
+    }
+
+}
@@ -0,0 +1,40 @@
+package catalinc.games.pong;
+
+/**
+ * Score formatted into a reusable char buffer, so showing the score does not allocate.
+ */
+class ScoreText {
+
+    private static final int SEPARATOR = 4;
+
+    final char[] chars = new char[2 * 10 + SEPARATOR];
+    int length;
+
+    ScoreText() {
+        set(0, 0);
+    }
+
+    void set(int humanScore, int computerScore) {
+        length = 0;
+        append(humanScore);
+        for (int i = 0; i < SEPARATOR; i++) {
+            chars[length++] = ' ';
+        }
+        append(computerScore);
+    }
+
+    private void append(int value) {
+        int start = length;
+        do {
+            chars[length++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // digits were written in reverse order
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = chars[i];
+            chars[i] = chars[j];
+            chars[j] = c;
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package catalinc.games.pong;
+
+/**
+ * Starts frames at most once per period, sleeping in between.
+ * <p/>
+ * Thread sleeps only have millisecond granularity, so the scheduler sleeps until shortly before the deadline and
+ * yields for the rest, which keeps frames within a few microseconds of the period.
+ */
+class SleepFrameScheduler implements FrameScheduler {
+
+    /**
+     * Remaining time below which the scheduler yields instead of sleeping.
+     */
+    private static final long SPIN_NANOS = 1000000L;
+
+    private final long   mFrameNanos;
+    private final Object mLock = new Object();
+
+    private          long    mLastFrame;
+    private volatile boolean mWoken;
+
+    SleepFrameScheduler(long frameNanos) {
+        mFrameNanos = frameNanos;
+        mLastFrame = System.nanoTime() - frameNanos;
+    }
+
+    @Override
+    public long awaitFrame() throws InterruptedException {
+        final long deadline = mLastFrame + mFrameNanos;
+        synchronized (mLock) {
+            long remaining;
+            while (!mWoken && (remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+                mLock.wait((remaining - SPIN_NANOS) / 1000000L + 1);
+            }
+        }
+        while (!mWoken && deadline - System.nanoTime() > 0) {
+            Thread.yield();
+        }
+        mWoken = false;
+        mLastFrame = System.nanoTime();
+        return mLastFrame;
+    }
+
+    @Override
+    public long now() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void wakeUp() {
+        synchronized (mLock) {
+            mWoken = true;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void release() {
+    }
+
+}
@@ -0,0 +1,211 @@
+package catalinc.games.pong;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PathEffect;
+import android.graphics.RectF;
+
+/**
+ * Offscreen bitmaps for everything that looks the same from frame to frame.
+ * <p/>
+ * The arena (background, bounds, dashed median line and obstacles) is rendered once per surface size, each paddle
+ * is rendered once plain and once with its glow. Drawing a frame is then a few bitmap blits, without path effects or blur.
+ * Sprites are drawn in world units but rendered at the pixel size they cover on the surface, so they stay sharp.
+ */
+class SpriteCache {
+
+    static final int PADDLE_HUMAN    = 0;
+    static final int PADDLE_COMPUTER = 1;
+
+    private static final float PADDLE_CORNER_RADIUS = 5;
+
+    private final Paint mCanvasBoundsPaint;
+    private final Paint mMedianLinePaint;
+    private final Paint mObstaclePaint;
+    /**
+     * Path effect of the median line paint, dropped at low quality.
+     */
+    private final PathEffect mMedianDash;
+
+    private ObstacleGrid mObstacles;
+
+    /**
+     * Surface pixels per world unit.
+     */
+    private float mScale;
+
+    private Bitmap mBackground;
+    private int    mBackgroundWidth;
+    private int    mBackgroundHeight;
+
+    /**
+     * Indexed by paddle * 2 + (glow ? 1 : 0).
+     */
+    private final Bitmap[] mPaddles;
+    private final int[]    mPaddleMargins;
+
+    private final RectF mDestination;
+
+    SpriteCache(Paint canvasBoundsPaint, Paint medianLinePaint, Paint obstaclePaint) {
+        mCanvasBoundsPaint = canvasBoundsPaint;
+        mMedianLinePaint = medianLinePaint;
+        mObstaclePaint = obstaclePaint;
+        mMedianDash = medianLinePaint.getPathEffect();
+        mPaddles = new Bitmap[4];
+        mPaddleMargins = new int[2];
+        mDestination = new RectF();
+        mScale = 1;
+    }
+
+    void drawBackground(Canvas canvas, int width, int height) {
+        if (mBackground == null || mBackgroundWidth != width || mBackgroundHeight != height) {
+            invalidateBackground();
+            mBackground = renderBackground(width, height);
+            mBackgroundWidth = width;
+            mBackgroundHeight = height;
+        }
+        mDestination.set(0, 0, width, height);
+        canvas.drawBitmap(mBackground, null, mDestination, null);
+    }
+
+    /**
+     * Draw a paddle at the given top left corner of its bounds.
+     */
+    void drawPaddle(Canvas canvas, int paddle, Player player, Paint paint, boolean glow, float left, float top) {
+        final int index = paddle * 2 + (glow ? 1 : 0);
+        Bitmap sprite = mPaddles[index];
+        if (sprite == null) {
+            sprite = renderPaddle(player, paint, glow, mScale);
+            mPaddles[index] = sprite;
+            mPaddleMargins[paddle] = glowRadius(player) + 1;
+        }
+        final int margin = mPaddleMargins[paddle];
+        mDestination.set(left - margin, top - margin,
+                         left + player.paddleWidth + margin, top + player.paddleHeight + margin);
+        canvas.drawBitmap(sprite, null, mDestination, null);
+    }
+
+    /**
+     * Drop the arena, e.g. after the surface size changed.
+     */
+    void invalidateBackground() {
+        if (mBackground != null) {
+            mBackground.recycle();
+            mBackground = null;
+        }
+    }
+
+    /**
+     * Drop the paddle sprites, e.g. after a paddle paint or size changed.
+     */
+    void invalidatePaddles() {
+        for (int i = 0; i < mPaddles.length; i++) {
+            if (mPaddles[i] != null) {
+                mPaddles[i].recycle();
+                mPaddles[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Draw these obstacles with the arena, null for none.
+     */
+    void setObstacles(ObstacleGrid obstacles) {
+        mObstacles = obstacles;
+        invalidateBackground();
+    }
+
+    /**
+     * Render the sprites again for this many surface pixels per world unit.
+     */
+    void setScale(float scale) {
+        if (scale != mScale) {
+            mScale = scale;
+            invalidate();
+        }
+    }
+
+    /**
+     * Render the sprites again with or without anti-aliasing and the dashes of the median line.
+     */
+    void setQuality(boolean antiAlias, boolean dashedMedian) {
+        mCanvasBoundsPaint.setAntiAlias(antiAlias);
+        mMedianLinePaint.setAntiAlias(antiAlias);
+        mMedianLinePaint.setPathEffect(dashedMedian ? mMedianDash : null);
+        mObstaclePaint.setAntiAlias(antiAlias);
+        invalidate();
+    }
+
+    void invalidate() {
+        invalidateBackground();
+        invalidatePaddles();
+    }
+
+    private Bitmap renderBackground(int width, int height) {
+        // the arena is opaque, 16 bits per pixel are enough
+        Bitmap bitmap = Bitmap.createBitmap(pixels(width, mScale), pixels(height, mScale), Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale(mScale, mScale);
+        canvas.drawColor(Color.BLACK);
+        canvas.drawRect(0, 0, width, height, mCanvasBoundsPaint);
+
+        final int middle = width / 2;
+        canvas.drawLine(middle, 1, middle, height - 1, mMedianLinePaint);
+        if (mObstacles != null) {
+            drawObstacles(canvas, mObstacles);
+        }
+        return bitmap;
+    }
+
+    private void drawObstacles(Canvas canvas, ObstacleGrid obstacles) {
+        final float[] s = obstacles.shape;
+        final Paint paint = mObstaclePaint;
+        final float strokeWidth = paint.getStrokeWidth();
+        for (int i = 0; i < obstacles.count; i++) {
+            final int p = i * Level.PARAMS;
+            switch (obstacles.kind[i]) {
+                case Level.KIND_BRICK:
+                    canvas.drawRect(s[p], s[p + 1], s[p + 2], s[p + 3], paint);
+                    break;
+                case Level.KIND_BUMPER:
+                    canvas.drawCircle(s[p], s[p + 1], s[p + 2], paint);
+                    break;
+                case Level.KIND_DEFLECTOR:
+                    // round caps make the drawn line the capsule the ball bounces off
+                    paint.setStrokeWidth(2 * s[p + 4]);
+                    canvas.drawLine(s[p], s[p + 1], s[p + 2], s[p + 3], paint);
+                    paint.setStrokeWidth(strokeWidth);
+                    break;
+            }
+        }
+    }
+
+    private static Bitmap renderPaddle(Player player, Paint paint, boolean glow, float scale) {
+        final int margin = glowRadius(player) + 1;
+        Bitmap bitmap = Bitmap.createBitmap(pixels(player.paddleWidth + 2 * margin, scale),
+                                            pixels(player.paddleHeight + 2 * margin, scale),
+                                            Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale(scale, scale);
+        Paint spritePaint = new Paint(paint);
+        if (glow) {
+            spritePaint.setShadowLayer(glowRadius(player), 0, 0, paint.getColor());
+        } else {
+            spritePaint.setShadowLayer(0, 0, 0, 0);
+        }
+        RectF bounds = new RectF(margin, margin, margin + player.paddleWidth, margin + player.paddleHeight);
+        canvas.drawRoundRect(bounds, PADDLE_CORNER_RADIUS, PADDLE_CORNER_RADIUS, spritePaint);
+        return bitmap;
+    }
+
+    private static int pixels(int units, float scale) {
+        return Math.max(1, Math.round(units * scale));
+    }
+
+    private static int glowRadius(Player player) {
+        return player.paddleWidth / 2;
+    }
+
+}
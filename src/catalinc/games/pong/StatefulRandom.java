@@ -0,0 +1,43 @@
+package catalinc.games.pong;
+
+import java.util.Random;
+
+/**
+ * Same generator as java.util.Random, but its internal state can be read and written back, so a snapshot of the
+ * game can continue with exactly the same random numbers.
+ */
+class StatefulRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND     = 0xBL;
+    private static final long MASK       = (1L << 48) - 1;
+
+    private long mState;
+
+    StatefulRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        // also called from the Random constructor, before this class is initialized
+        mState = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        mState = (mState * MULTIPLIER + ADDEND) & MASK;
+        return (int) (mState >>> (48 - bits));
+    }
+
+    long getState() {
+        return mState;
+    }
+
+    void setState(long state) {
+        mState = state & MASK;
+    }
+
+}
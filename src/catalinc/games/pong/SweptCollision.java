@@ -0,0 +1,288 @@
+package catalinc.games.pong;
+
+/**
+ * Continuous collision test of the moving ball against a paddle or an obstacle.
+ * <p/>
+ * The paddle grown by the ball radius is a rounded rectangle (Minkowski sum), so the ball center is traced as a ray
+ * against its four faces and four corner circles. Bumpers grow into larger circles and deflectors into capsules.
+ * The result is exact at any ball speed.
+ */
+class SweptCollision {
+
+    private static final float NO_HIT = -1;
+
+    /**
+     * Time of impact as a fraction of the ball velocity, valid after a successful test.
+     */
+    float time;
+
+    /**
+     * Surface normal at the point of impact, valid after a successful test.
+     */
+    float nx;
+    float ny;
+
+    /**
+     * Sweep the ball along its velocity for maxTime and look for the first contact with the paddle.
+     *
+     * @return true if the ball touches the paddle, time, nx and ny are then set.
+     */
+    boolean ballVsPaddle(Ball ball, Player player, float maxTime) {
+        final float r = ball.radius;
+        final float cx = ball.cx;
+        final float cy = ball.cy;
+        final float dx = ball.dx;
+        final float dy = ball.dy;
+        final float left = player.left;
+        final float top = player.top;
+        final float right = left + player.paddleWidth;
+        final float bottom = top + player.paddleHeight;
+
+        // broad phase: bounding box of the swept ball against the paddle, as cheap as the old overlap test
+        final float ex = cx + dx * maxTime;
+        if (dx >= 0 ? (ex + r < left || cx - r > right) : (cx + r < left || ex - r > right)) {
+            return false;
+        }
+        final float ey = cy + dy * maxTime;
+        if (dy >= 0 ? (ey + r < top || cy - r > bottom) : (cy + r < top || ey - r > bottom)) {
+            return false;
+        }
+
+        // already touching: only react if the ball moves into the paddle, otherwise let it leave
+        if (insideRoundedRect(cx, cy, r, left, top, right, bottom)) {
+            float sideX = cx < (left + right) / 2 ? -1 : 1;
+            if (dx * sideX < 0) {
+                time = 0;
+                nx = sideX;
+                ny = 0;
+                return true;
+            }
+            return false;
+        }
+        return ballVsBox(cx, cy, dx, dy, r, left, top, right, bottom, maxTime);
+    }
+
+    /**
+     * Trace the ball center against a box grown by the ball radius. A ball already overlapping the box is not
+     * tested, callers handle that case.
+     */
+    boolean ballVsBox(float cx, float cy, float dx, float dy, float r,
+                      float left, float top, float right, float bottom, float maxTime) {
+        boolean hit = false;
+        float best = maxTime;
+
+        // vertical faces
+        if (dx > 0) {
+            float t = (left - r - cx) / dx;
+            if (t >= 0 && t <= best) {
+                float y = cy + dy * t;
+                if (y >= top && y <= bottom) {
+                    best = t;
+                    nx = -1;
+                    ny = 0;
+                    hit = true;
+                }
+            }
+        } else if (dx < 0) {
+            float t = (right + r - cx) / dx;
+            if (t >= 0 && t <= best) {
+                float y = cy + dy * t;
+                if (y >= top && y <= bottom) {
+                    best = t;
+                    nx = 1;
+                    ny = 0;
+                    hit = true;
+                }
+            }
+        }
+
+        // horizontal faces
+        if (dy > 0) {
+            float t = (top - r - cy) / dy;
+            if (t >= 0 && t <= best) {
+                float x = cx + dx * t;
+                if (x >= left && x <= right) {
+                    best = t;
+                    nx = 0;
+                    ny = -1;
+                    hit = true;
+                }
+            }
+        } else if (dy < 0) {
+            float t = (bottom + r - cy) / dy;
+            if (t >= 0 && t <= best) {
+                float x = cx + dx * t;
+                if (x >= left && x <= right) {
+                    best = t;
+                    nx = 0;
+                    ny = 1;
+                    hit = true;
+                }
+            }
+        }
+
+        // corners
+        boolean cornerHit = false;
+        float cornerX = 0;
+        float cornerY = 0;
+        float t = corner(cx, cy, dx, dy, r, left, top, best);
+        if (t != NO_HIT) {
+            best = t;
+            cornerHit = true;
+            cornerX = left;
+            cornerY = top;
+        }
+        t = corner(cx, cy, dx, dy, r, right, top, best);
+        if (t != NO_HIT) {
+            best = t;
+            cornerHit = true;
+            cornerX = right;
+            cornerY = top;
+        }
+        t = corner(cx, cy, dx, dy, r, left, bottom, best);
+        if (t != NO_HIT) {
+            best = t;
+            cornerHit = true;
+            cornerX = left;
+            cornerY = bottom;
+        }
+        t = corner(cx, cy, dx, dy, r, right, bottom, best);
+        if (t != NO_HIT) {
+            best = t;
+            cornerHit = true;
+            cornerX = right;
+            cornerY = bottom;
+        }
+        if (cornerHit) {
+            nx = (cx + dx * best - cornerX) / r;
+            ny = (cy + dy * best - cornerY) / r;
+            hit = true;
+        }
+
+        if (hit) {
+            time = best;
+        }
+        return hit;
+    }
+
+    /**
+     * Trace the ball center against a circle grown by the ball radius. A ball overlapping the circle is let go.
+     */
+    boolean ballVsCircle(float cx, float cy, float dx, float dy, float r,
+                         float px, float py, float radius, float maxTime) {
+        final float grown = r + radius;
+        final float t = corner(cx, cy, dx, dy, grown, px, py, maxTime);
+        if (t == NO_HIT) {
+            return false;
+        }
+        time = t;
+        nx = (cx + dx * t - px) / grown;
+        ny = (cy + dy * t - py) / grown;
+        return true;
+    }
+
+    /**
+     * Trace the ball center against a thick segment grown by the ball radius, i.e. a capsule: two sides parallel to
+     * the segment and a circle at each end. A ball overlapping the capsule is let go.
+     *
+     * @param radius half the thickness of the segment.
+     */
+    boolean ballVsCapsule(float cx, float cy, float dx, float dy, float r,
+                          float x1, float y1, float x2, float y2, float radius, float maxTime) {
+        final float grown = r + radius;
+        final float sx = x2 - x1;
+        final float sy = y2 - y1;
+        final float length = (float) Math.sqrt(sx * sx + sy * sy);
+        if (length == 0) {
+            return ballVsCircle(cx, cy, dx, dy, r, x1, y1, radius, maxTime);
+        }
+        final float ux = sx / length;
+        final float uy = sy / length;
+        // signed distance from the segment line and the speed towards it
+        final float distance = (cx - x1) * -uy + (cy - y1) * ux;
+        final float along = (cx - x1) * ux + (cy - y1) * uy;
+        if (Math.abs(distance) < grown && along >= 0 && along <= length) {
+            return false;
+        }
+        final float approach = dx * -uy + dy * ux;
+
+        boolean hit = false;
+        float best = maxTime;
+        if (distance >= grown && approach < 0 || distance <= -grown && approach > 0) {
+            final float side = distance > 0 ? 1 : -1;
+            final float t = (distance - side * grown) / -approach;
+            if (t >= 0 && t <= best) {
+                final float a = (cx + dx * t - x1) * ux + (cy + dy * t - y1) * uy;
+                if (a >= 0 && a <= length) {
+                    best = t;
+                    nx = -uy * side;
+                    ny = ux * side;
+                    hit = true;
+                }
+            }
+        }
+
+        boolean endHit = false;
+        float endX = 0;
+        float endY = 0;
+        float t = corner(cx, cy, dx, dy, grown, x1, y1, best);
+        if (t != NO_HIT) {
+            best = t;
+            endHit = true;
+            endX = x1;
+            endY = y1;
+        }
+        t = corner(cx, cy, dx, dy, grown, x2, y2, best);
+        if (t != NO_HIT) {
+            best = t;
+            endHit = true;
+            endX = x2;
+            endY = y2;
+        }
+        if (endHit) {
+            nx = (cx + dx * best - endX) / grown;
+            ny = (cy + dy * best - endY) / grown;
+            hit = true;
+        }
+
+        if (hit) {
+            time = best;
+        }
+        return hit;
+    }
+
+    /**
+     * Ray against the circle of radius r around a paddle corner or an obstacle.
+     *
+     * @return time of impact not later than maxTime or NO_HIT.
+     */
+    private static float corner(float cx, float cy, float dx, float dy, float r,
+                                float px, float py, float maxTime) {
+        float mx = cx - px;
+        float my = cy - py;
+        float b = mx * dx + my * dy;
+        if (b >= 0) {
+            // moving away from the corner
+            return NO_HIT;
+        }
+        float c = mx * mx + my * my - r * r;
+        float a = dx * dx + dy * dy;
+        float disc = b * b - a * c;
+        if (disc < 0) {
+            return NO_HIT;
+        }
+        float t = (-b - (float) Math.sqrt(disc)) / a;
+        if (t < 0 || t > maxTime) {
+            return NO_HIT;
+        }
+        return t;
+    }
+
+    private static boolean insideRoundedRect(float cx, float cy, float r,
+                                             float left, float top, float right, float bottom) {
+        float qx = cx < left ? left - cx : (cx > right ? cx - right : 0);
+        float qy = cy < top ? top - cy : (cy > bottom ? cy - bottom : 0);
+        return qx * qx + qy * qy < r * r;
+    }
+
+}
@@ -0,0 +1,105 @@
+package catalinc.games.pong;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer / single consumer queue of telemetry records.
+ * <p/>
+ * The game thread offers records, the telemetry writer polls them. Records are a type, a tick and three values
+ * stored in preallocated primitive arrays, so neither side allocates or blocks. When the queue is full new records
+ * are dropped and counted.
+ */
+class TelemetryQueue {
+
+    private final int     mMask;
+    private final int[]   mTypes;
+    private final long[]  mTicks;
+    private final float[] mValues;
+
+    /**
+     * Next slot to read, only advanced by the consumer.
+     */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /**
+     * Next slot to write, only advanced by the producer.
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    private volatile long mDropped;
+
+    /**
+     * Fields of the last polled record, valid until the next poll.
+     */
+    int   type;
+    long  tick;
+    float a;
+    float b;
+    float c;
+
+    /**
+     * @param capacity rounded up to a power of two.
+     */
+    TelemetryQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mMask = size - 1;
+        mTypes = new int[size];
+        mTicks = new long[size];
+        mValues = new float[3 * size];
+    }
+
+    /**
+     * Called by the producer thread only.
+     *
+     * @return false if the queue is full and the record was dropped.
+     */
+    boolean offer(int type, long tick, float a, float b, float c) {
+        final long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            mDropped++;
+            return false;
+        }
+        final int i = (int) tail & mMask;
+        mTypes[i] = type;
+        mTicks[i] = tick;
+        mValues[3 * i] = a;
+        mValues[3 * i + 1] = b;
+        mValues[3 * i + 2] = c;
+        // publish the slot after it was written
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer thread only. The record is copied to type, tick, a, b and c.
+     *
+     * @return false if the queue is empty.
+     */
+    boolean poll() {
+        final long head = mHead.get();
+        if (head == mTail.get()) {
+            return false;
+        }
+        final int i = (int) head & mMask;
+        type = mTypes[i];
+        tick = mTicks[i];
+        a = mValues[3 * i];
+        b = mValues[3 * i + 1];
+        c = mValues[3 * i + 2];
+        // release the slot after it was read
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    /**
+     * @return number of records dropped because the queue was full.
+     */
+    long getDropped() {
+        return mDropped;
+    }
+
+}
@@ -0,0 +1,179 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Aggregates telemetry logs written by TelemetryWriter in a single streaming pass.
+ * <p/>
+ * Logs are read through a fixed buffer, so their size does not matter. Only running sums, maxima and histograms are
+ * kept.
+ */
+class TelemetrySummary {
+
+    /**
+     * Buckets of the hit position histogram, over the paddle from bottom to top.
+     */
+    static final int HIT_BUCKETS = 10;
+    /**
+     * Rallies of this many hits or more share the last bucket of the rally histogram.
+     */
+    static final int RALLY_BUCKETS = 21;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    long records;
+    long files;
+
+    final long[] hits         = new long[2];
+    final long[] points       = new long[2];
+    final long[] hitPositions = new long[HIT_BUCKETS];
+    final long[] rallyLengths = new long[RALLY_BUCKETS];
+
+    double speedSum;
+    float  maxSpeed;
+    long   rallyHitsSum;
+    int    maxRally;
+    double roundSecondsSum;
+    float  maxRoundSeconds;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE % TelemetryWriter.RECORD_SIZE);
+
+    /**
+     * Read the log and its rotated files, oldest first.
+     *
+     * @param maxFiles number of files the writer keeps.
+     */
+    void readRotated(File log, int maxFiles) throws IOException {
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File rotated = new File(log.getPath() + "." + i);
+            if (rotated.exists()) {
+                read(rotated);
+            }
+        }
+        if (log.exists()) {
+            read(log);
+        }
+    }
+
+    /**
+     * @throws IOException if the file is not a telemetry log.
+     */
+    void read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer b = mBuffer;
+            b.clear();
+            b.limit(TelemetryWriter.HEADER_SIZE);
+            fill(channel, b);
+            if (b.remaining() < TelemetryWriter.HEADER_SIZE || b.getInt() != TelemetryWriter.MAGIC) {
+                throw new IOException("Not a telemetry log: " + file);
+            }
+            int version = b.getShort();
+            if (version != TelemetryWriter.VERSION) {
+                throw new IOException("Unsupported telemetry log version " + version);
+            }
+            files++;
+            while (true) {
+                b.clear();
+                fill(channel, b);
+                // a record cut short at the end is ignored
+                while (b.remaining() >= TelemetryWriter.RECORD_SIZE) {
+                    add(b.getInt(), b.getLong(), b.getFloat(), b.getFloat(), b.getFloat());
+                }
+                if (b.limit() < b.capacity()) {
+                    return;
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read until the buffer is full or the end of the file, then flip it.
+     */
+    private static void fill(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining() && channel.read(b) >= 0) {
+            // keep reading
+        }
+        b.flip();
+    }
+
+    void add(int type, long tick, float a, float b, float c) {
+        records++;
+        switch (type) {
+            case TelemetryWriter.TYPE_HIT: {
+                hits[(int) a]++;
+                int bucket = (int) ((b + 1) / 2 * HIT_BUCKETS);
+                hitPositions[Math.max(0, Math.min(HIT_BUCKETS - 1, bucket))]++;
+                speedSum += c;
+                maxSpeed = Math.max(maxSpeed, c);
+                break;
+            }
+            case TelemetryWriter.TYPE_POINT: {
+                points[(int) a]++;
+                int rally = (int) b;
+                rallyHitsSum += rally;
+                maxRally = Math.max(maxRally, rally);
+                rallyLengths[Math.min(rally, RALLY_BUCKETS - 1)]++;
+                roundSecondsSum += c;
+                maxRoundSeconds = Math.max(maxRoundSeconds, c);
+                break;
+            }
+            default:
+                // written by a newer version, skip
+                break;
+        }
+    }
+
+    long totalHits() {
+        return hits[TelemetryWriter.PLAYER_HUMAN] + hits[TelemetryWriter.PLAYER_COMPUTER];
+    }
+
+    long totalPoints() {
+        return points[TelemetryWriter.PLAYER_HUMAN] + points[TelemetryWriter.PLAYER_COMPUTER];
+    }
+
+    /**
+     * @return share of the balls coming at the computer paddle that it missed.
+     */
+    double aiMissRate() {
+        long missed = points[TelemetryWriter.PLAYER_HUMAN];
+        long chances = hits[TelemetryWriter.PLAYER_COMPUTER] + missed;
+        return chances > 0 ? missed / (double) chances : 0;
+    }
+
+    String summary() {
+        StringBuilder s = new StringBuilder();
+        long totalHits = totalHits();
+        long totalPoints = totalPoints();
+        s.append(String.format("records %d in %d files%n", records, files));
+        s.append(String.format("points  %d (human %d, computer %d)%n", totalPoints,
+                               points[TelemetryWriter.PLAYER_HUMAN], points[TelemetryWriter.PLAYER_COMPUTER]));
+        s.append(String.format("hits    %d (human %d, computer %d)%n", totalHits,
+                               hits[TelemetryWriter.PLAYER_HUMAN], hits[TelemetryWriter.PLAYER_COMPUTER]));
+        s.append(String.format("rally   mean %.2f hits, max %d%n",
+                               totalPoints > 0 ? rallyHitsSum / (double) totalPoints : 0, maxRally));
+        s.append(String.format("round   mean %.2f s, max %.2f s%n",
+                               totalPoints > 0 ? roundSecondsSum / totalPoints : 0, maxRoundSeconds));
+        s.append(String.format("speed   mean %.2f units/tick, max %.2f%n",
+                               totalHits > 0 ? speedSum / totalHits : 0, maxSpeed));
+        s.append(String.format("AI miss rate %.1f%%%n", 100 * aiMissRate()));
+        s.append("hit position, bottom to top:");
+        for (long count : hitPositions) {
+            s.append(' ').append(count);
+        }
+        s.append(String.format("%nrally length 0..%d+:", RALLY_BUCKETS - 1));
+        for (long count : rallyLengths) {
+            s.append(' ').append(count);
+        }
+        s.append(String.format("%n"));
+        return s.toString();
+    }
+
+}
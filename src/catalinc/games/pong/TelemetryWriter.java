@@ -0,0 +1,222 @@
+package catalinc.games.pong;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only binary log of gameplay events, for TelemetrySummary.
+ * <p/>
+ * The game thread only offers fixed size records to a TelemetryQueue and never waits. A background thread drains the
+ * queue in batches into a buffer and appends it to the log through a file channel. When the log would grow past
+ * its size limit it is rotated: log becomes log.1, log.1 becomes log.2 and so on, the oldest one is deleted.
+ * <p/>
+ * Every file starts with a header (magic, version) followed by records of RECORD_SIZE bytes: type, tick and three
+ * values whose meaning depends on the type.
+ */
+class TelemetryWriter {
+
+    static final int MAGIC   = 0x504f4e54; // "PONT"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 4 + 2;
+    static final int RECORD_SIZE = 4 + 8 + 3 * 4;
+
+    /**
+     * A ball hit a paddle: paddle (0 human, 1 computer), hit position on the paddle (-1 bottom to 1 top), ball speed
+     * in world units per tick.
+     */
+    static final int TYPE_HIT   = 1;
+    /**
+     * A round ended: winner (0 human, 1 computer), paddle hits in the rally, round duration in seconds.
+     */
+    static final int TYPE_POINT = 2;
+
+    static final int PLAYER_HUMAN    = 0;
+    static final int PLAYER_COMPUTER = 1;
+
+    private static final int  BATCH_RECORDS = 2048;
+    private static final long IDLE_NANOS    = 50000000L;
+
+    private final TelemetryQueue mQueue;
+    private final File           mFile;
+    private final long           mMaxFileBytes;
+    private final int            mMaxFiles;
+    private final ByteBuffer     mBuffer;
+    private final Thread         mWriter;
+
+    private FileChannel mChannel;
+    private long        mFileBytes;
+
+    private volatile boolean     mClosed;
+    private volatile IOException mError;
+
+    /**
+     * @param maxFileBytes size at which the log is rotated.
+     * @param maxFiles     number of files kept, the current one included.
+     */
+    TelemetryWriter(File file, long maxFileBytes, int maxFiles, int queueCapacity) throws IOException {
+        mQueue = new TelemetryQueue(queueCapacity);
+        mFile = file;
+        mMaxFileBytes = Math.max(maxFileBytes, HEADER_SIZE + BATCH_RECORDS * RECORD_SIZE);
+        mMaxFiles = Math.max(maxFiles, 1);
+        mBuffer = ByteBuffer.allocateDirect(BATCH_RECORDS * RECORD_SIZE);
+        open();
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "TelemetryWriter");
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+        mWriter.start();
+    }
+
+    /**
+     * Game thread only, never blocks.
+     *
+     * @return false if the record was dropped.
+     */
+    boolean hit(long tick, int player, float position, float speed) {
+        return mQueue.offer(TYPE_HIT, tick, player, position, speed);
+    }
+
+    /**
+     * Game thread only, never blocks.
+     *
+     * @return false if the record was dropped.
+     */
+    boolean point(long tick, int winner, int rallyHits, float seconds) {
+        return mQueue.offer(TYPE_POINT, tick, winner, rallyHits, seconds);
+    }
+
+    /**
+     * @return number of records dropped because the writer fell behind.
+     */
+    long getDropped() {
+        return mQueue.getDropped();
+    }
+
+    /**
+     * Write what is queued and stop the writer, waiting for it to finish. Any thread may call it after the last record,
+     * callers keep it from running concurrently with the producer: PongThread holds the mSurfaceHolder lock both
+     * here and while recording.
+     */
+    void close() throws IOException {
+        mClosed = true;
+        LockSupport.unpark(mWriter);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mWriter.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mChannel.close();
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    private void writeLoop() {
+        final TelemetryQueue queue = mQueue;
+        final ByteBuffer b = mBuffer;
+        while (true) {
+            // read the flag first, so nothing queued before close() is left behind
+            boolean closed = mClosed;
+            b.clear();
+            while (b.hasRemaining() && queue.poll()) {
+                b.putInt(queue.type);
+                b.putLong(queue.tick);
+                b.putFloat(queue.a);
+                b.putFloat(queue.b);
+                b.putFloat(queue.c);
+            }
+            if (b.position() > 0) {
+                write(b);
+            } else if (closed) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+    }
+
+    private void write(ByteBuffer b) {
+        if (mError != null) {
+            // keep draining so the game thread sees no difference, the error is reported by close()
+            return;
+        }
+        b.flip();
+        try {
+            if (mFileBytes + b.remaining() > mMaxFileBytes) {
+                rotate();
+            }
+            while (b.hasRemaining()) {
+                mFileBytes += mChannel.write(b);
+            }
+        } catch (IOException e) {
+            mError = e;
+        }
+    }
+
+    private void rotate() throws IOException {
+        mChannel.close();
+        new File(mFile.getPath() + "." + (mMaxFiles - 1)).delete();
+        for (int i = mMaxFiles - 2; i >= 1; i--) {
+            new File(mFile.getPath() + "." + i).renameTo(new File(mFile.getPath() + "." + (i + 1)));
+        }
+        if (mMaxFiles > 1) {
+            mFile.renameTo(new File(mFile.getPath() + ".1"));
+        } else {
+            mFile.delete();
+        }
+        open();
+    }
+
+    /**
+     * Open the log for appending, a new file or one in another format gets a header. A record cut short when the
+     * game was killed is dropped.
+     */
+    private void open() throws IOException {
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        mFileBytes = mChannel.size();
+        if (mFileBytes > HEADER_SIZE && hasHeader()) {
+            mFileBytes -= (mFileBytes - HEADER_SIZE) % RECORD_SIZE;
+            mChannel.truncate(mFileBytes);
+        } else {
+            mFileBytes = 0;
+            mChannel.truncate(0);
+        }
+        mChannel.position(mFileBytes);
+        if (mFileBytes == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort((short) VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                mFileBytes += mChannel.write(header);
+            }
+        }
+    }
+
+    private boolean hasHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (mChannel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+        header.flip();
+        return header.getInt() == MAGIC && header.getShort() == VERSION;
+    }
+
+}
@@ -0,0 +1,160 @@
+package catalinc.games.pong;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+/**
+ * Non-blocking datagram link to one peer.
+ * <p/>
+ * For testing, outgoing packets can be delayed by a latency plus random jitter, which also reorders them, or
+ * dropped at random. Delayed packets wait in preallocated slots and go out from send() or receive() once due.
+ */
+class UdpTransport {
+
+    static final int MAX_PACKET = 512;
+
+    private static final int DELAY_SLOTS = 256;
+
+    private final DatagramChannel mChannel;
+
+    private int    mLatencyNanos;
+    private int    mJitterNanos;
+    private float  mLoss;
+    private Random mRandom;
+
+    private final ByteBuffer[] mDelayed;
+    /**
+     * When each delayed packet is due, 0 for a free slot.
+     */
+    private final long[]       mDue;
+
+    private long mSent;
+    private long mReceived;
+    private long mDropped;
+
+    UdpTransport(int localPort, SocketAddress remote) throws IOException {
+        mChannel = DatagramChannel.open();
+        mChannel.configureBlocking(false);
+        mChannel.socket().bind(new InetSocketAddress(localPort));
+        mChannel.connect(remote);
+        mDelayed = new ByteBuffer[DELAY_SLOTS];
+        mDue = new long[DELAY_SLOTS];
+    }
+
+    /**
+     * Simulate a bad network on the way out.
+     *
+     * @param loss probability of dropping a packet, 0 to 1.
+     */
+    void setImpairment(int latencyMillis, int jitterMillis, float loss, long seed) {
+        mLatencyNanos = latencyMillis * 1000000;
+        mJitterNanos = jitterMillis * 1000000;
+        mLoss = loss;
+        mRandom = new Random(seed);
+        for (int i = 0; i < DELAY_SLOTS; i++) {
+            if (mDelayed[i] == null) {
+                mDelayed[i] = ByteBuffer.allocate(MAX_PACKET);
+            }
+        }
+    }
+
+    /**
+     * Send a packet, from its position to its limit.
+     */
+    void send(ByteBuffer packet) throws IOException {
+        mSent++;
+        if (mRandom == null) {
+            write(packet);
+            return;
+        }
+        flushDelayed(System.nanoTime());
+        if (mRandom.nextFloat() < mLoss) {
+            mDropped++;
+            return;
+        }
+        long delay = mLatencyNanos + (mJitterNanos > 0 ? (long) (mRandom.nextFloat() * mJitterNanos) : 0);
+        if (delay == 0) {
+            write(packet);
+            return;
+        }
+        for (int i = 0; i < DELAY_SLOTS; i++) {
+            if (mDue[i] == 0) {
+                ByteBuffer slot = mDelayed[i];
+                slot.clear();
+                slot.put(packet);
+                slot.flip();
+                mDue[i] = System.nanoTime() + delay;
+                return;
+            }
+        }
+        // more in flight than the simulated link holds
+        mDropped++;
+    }
+
+    /**
+     * Read one packet if there is one.
+     *
+     * @return false if nothing was received.
+     */
+    boolean receive(ByteBuffer into) throws IOException {
+        if (mRandom != null) {
+            flushDelayed(System.nanoTime());
+        }
+        into.clear();
+        int read;
+        try {
+            read = mChannel.read(into);
+        } catch (PortUnreachableException e) {
+            // the peer is not listening yet
+            return false;
+        }
+        into.flip();
+        if (read <= 0) {
+            return false;
+        }
+        mReceived++;
+        return true;
+    }
+
+    void close() throws IOException {
+        mChannel.close();
+    }
+
+    long getSent() {
+        return mSent;
+    }
+
+    long getReceived() {
+        return mReceived;
+    }
+
+    /**
+     * @return packets dropped by the simulated impairment.
+     */
+    long getDropped() {
+        return mDropped;
+    }
+
+    private void flushDelayed(long now) throws IOException {
+        for (int i = 0; i < DELAY_SLOTS; i++) {
+            if (mDue[i] != 0 && mDue[i] - now <= 0) {
+                mDue[i] = 0;
+                write(mDelayed[i]);
+            }
+        }
+    }
+
+    private void write(ByteBuffer packet) throws IOException {
+        try {
+            mChannel.write(packet);
+        } catch (PortUnreachableException e) {
+            // lost, the peer is not listening yet
+        }
+    }
+
+}
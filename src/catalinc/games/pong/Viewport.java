@@ -0,0 +1,64 @@
+package catalinc.games.pong;
+
+/**
+ * Maps the world the game is played in onto a rectangle of pixels, e.g. the surface buffer or the view.
+ * <p/>
+ * The world keeps its aspect ratio: it is scaled as large as it fits and centered, the rest of the rectangle is
+ * left as bars on two sides.
+ */
+class Viewport {
+
+    /**
+     * Pixels per world unit and where the world starts, in pixels.
+     */
+    float scale;
+    float left;
+    float top;
+
+    Viewport() {
+        scale = 1;
+    }
+
+    /**
+     * Fit a world of worldWidth x worldHeight units into a width x height pixel rectangle.
+     */
+    void fit(int worldWidth, int worldHeight, int width, int height) {
+        scale = Math.min((float) width / worldWidth, (float) height / worldHeight);
+        left = (width - worldWidth * scale) / 2;
+        top = (height - worldHeight * scale) / 2;
+    }
+
+    void set(Viewport other) {
+        scale = other.scale;
+        left = other.left;
+        top = other.top;
+    }
+
+    boolean sameAs(Viewport other) {
+        return scale == other.scale && left == other.left && top == other.top;
+    }
+
+    float toWorldX(float x) {
+        return (x - left) / scale;
+    }
+
+    float toWorldY(float y) {
+        return (y - top) / scale;
+    }
+
+    float toPixelX(float x) {
+        return left + x * scale;
+    }
+
+    float toPixelY(float y) {
+        return top + y * scale;
+    }
+
+    /**
+     * @return true if the world leaves bars uncovered.
+     */
+    boolean hasBars() {
+        return left >= 0.5f || top >= 0.5f;
+    }
+
+}
@@ -0,0 +1,72 @@
+package catalinc.games.pong;
+
+/**
+ * Scheduler on a virtual clock that only moves when told to, for deterministic pacing runs on a plain JVM.
+ * <p/>
+ * Frames start on a fixed grid like display refreshes. The caller advances the clock by the time its frame work
+ * is supposed to take. Work overrunning a refresh makes the next frame wait for the following one, and the
+ * skipped refreshes are counted as dropped frames.
+ */
+class VirtualFrameScheduler implements FrameScheduler {
+
+    private final long mFrameNanos;
+
+    private long mNow;
+    private long mLastFrame;
+    private long mFrames;
+    private long mDroppedFrames;
+
+    VirtualFrameScheduler(long frameNanos) {
+        mFrameNanos = frameNanos;
+        mLastFrame = -frameNanos;
+    }
+
+    /**
+     * Move the clock forward, e.g. by the simulated cost of a frame.
+     */
+    void advance(long nanos) {
+        mNow += nanos;
+    }
+
+    /**
+     * Never blocks, jumps the clock to the next refresh.
+     */
+    @Override
+    public long awaitFrame() {
+        long next = mLastFrame + mFrameNanos;
+        if (mNow > next) {
+            long missed = (mNow - next + mFrameNanos - 1) / mFrameNanos;
+            mDroppedFrames += missed;
+            next += missed * mFrameNanos;
+        }
+        mNow = next;
+        mLastFrame = next;
+        mFrames++;
+        return next;
+    }
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    @Override
+    public void wakeUp() {
+    }
+
+    @Override
+    public void release() {
+    }
+
+    long getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * @return refreshes skipped because the frame work took too long.
+     */
+    long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+}
@@ -0,0 +1,92 @@
+package catalinc.games.pong;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+
+/**
+ * Starts frames on display refreshes, using the vsync timestamps from Choreographer.
+ * <p/>
+ * Choreographer needs a looper thread and the game thread has none, so callbacks are delivered on a small
+ * handler thread. A callback is only requested while the game thread waits, nothing runs while it is busy.
+ */
+class VsyncFrameScheduler implements FrameScheduler, Choreographer.FrameCallback {
+
+    private final HandlerThread mThread;
+    private final Handler       mHandler;
+    private final Object        mLock = new Object();
+
+    /**
+     * Only used on the handler thread.
+     */
+    private Choreographer mChoreographer;
+
+    private long    mFrameCount;
+    private long    mFrameTimeNanos;
+    private boolean mRequested;
+    private boolean mWoken;
+
+    private final Runnable mRequestFrame = new Runnable() {
+        @Override
+        public void run() {
+            mChoreographer.postFrameCallback(VsyncFrameScheduler.this);
+        }
+    };
+
+    VsyncFrameScheduler() {
+        mThread = new HandlerThread("Vsync");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mChoreographer = Choreographer.getInstance();
+            }
+        });
+    }
+
+    @Override
+    public long awaitFrame() throws InterruptedException {
+        synchronized (mLock) {
+            final long seen = mFrameCount;
+            if (!mRequested) {
+                mRequested = true;
+                mHandler.post(mRequestFrame);
+            }
+            while (mFrameCount == seen && !mWoken) {
+                mLock.wait();
+            }
+            mWoken = false;
+            return mFrameCount == seen ? System.nanoTime() : mFrameTimeNanos;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        synchronized (mLock) {
+            mFrameTimeNanos = frameTimeNanos;
+            mFrameCount++;
+            mRequested = false;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public long now() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void wakeUp() {
+        synchronized (mLock) {
+            mWoken = true;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void release() {
+        mThread.quit();
+    }
+
+}